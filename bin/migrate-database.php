@@ -23,7 +23,8 @@ $migrations = [
     "renameTextUploadedAtColumn",
     "updateUsersTextsAnnotationsTables",
     "addPermissionsTables",
-    "addStudyTables"
+    "addStudyTables",
+    "addJobsTable"
 ];
 
 
@@ -683,4 +684,44 @@ function addStudyTables($dbh, $direction="up"){
         print "Removing studies table...\n";
         $dbh->exec("drop table studies");
     }
-}
\ No newline at end of file
+}
+
+function addJobsTable($dbh, $direction="up"){
+    global $isPostgres;
+
+    // Add tables.
+    if($direction === "up"){
+        // Create jobs table (the text processing server's durable queue).
+        print "Creating jobs table...\n";
+        $dbh->exec("create table jobs(".
+                ($isPostgres ? "id serial primary key," 
+                             : "id integer primary key autoincrement,").
+                "processor varchar(50),".
+                "annotation_id integer,".
+                "request text,".
+                "status varchar(20),".
+                "attempts integer default 0,".
+                "worker_id varchar(255),".
+                "error text,".
+                ($isPostgres ? "created_at timestamp," 
+                             : "created_at datetime,").
+                ($isPostgres ? "claimed_at timestamp," 
+                             : "claimed_at datetime,").
+                ($isPostgres ? "heartbeat_at timestamp," 
+                             : "heartbeat_at datetime,").
+                ($isPostgres ? "finished_at timestamp," 
+                             : "finished_at datetime,").
+                "foreign key(annotation_id) references annotations(id)".
+            ")"
+        );
+
+        print "Creating jobs status index...\n";
+        $dbh->exec("create index jobs_status_index on jobs(status, id)");
+
+    // Tear down.
+    } else {
+        // Delete jobs table.
+        print "Removing jobs table...\n";
+        $dbh->exec("drop table jobs");
+    }
+}
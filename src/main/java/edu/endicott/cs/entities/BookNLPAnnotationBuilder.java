@@ -0,0 +1,137 @@
+// Files:   BookNLPAnnotationBuilder.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.util.HashMap;
+
+import edu.endicott.cs.entities.annotations.CompactAnnotation;
+
+/**
+ * Builds an annotation (a CompactAnnotation) from BookNLP's character
+ * assignments, one token at a time. Consecutive tokens with the same
+ * character id form a single mention (location); each BookNLP character
+ * becomes a group, and each distinct proper-name mention of that character
+ * becomes an entity in the group. Pronouns and other mentions whose NER tag
+ * is "O" become locations of the first-named entity of their group, or of no
+ * entity if the group hasn't been named yet.
+ *
+ * Tokens can come from a BookNLP tokens file (see
+ * BookNLPProcessor.processTokensFile) or straight from a Book in memory (see
+ * BookNLPProcessor.processBook); both produce the same annotation.
+ */
+public class BookNLPAnnotationBuilder {
+    private CompactAnnotation annotation;
+
+    private HashMap<String, HashMap<String,String>> characterIdLookup;
+    private HashMap<String, Integer> internalCharacterIdToEntity;
+
+    private StringBuilder curCharacterText;
+    private String curCharacterGroupId;
+    private String curCharacterNER;
+    private int curCharacterStartOffset;
+    private int curCharacterEndOffset;
+    private int prevCharacterId;
+
+    public BookNLPAnnotationBuilder() {
+        annotation = new CompactAnnotation();
+        characterIdLookup = new HashMap<String, HashMap<String,String>>();
+        internalCharacterIdToEntity = new HashMap<String, Integer>();
+        curCharacterText = null;
+        prevCharacterId = -1;
+    }
+
+    /**
+     * Adds the next token.
+     *
+     * @param tokenId The token's id.
+     * @param original The token's original text.
+     * @param ner The token's NER tag.
+     * @param characterId The id of the character the token refers to, or -1.
+     */
+    public void addToken(int tokenId, String original, String ner,
+            int characterId) {
+
+        // See if this continues the current mention.
+        if(characterId > -1 && characterId == prevCharacterId) {
+            curCharacterText.append(' ').append(original);
+            curCharacterEndOffset = tokenId;
+
+        } else {
+            // Were we in one before? -- emit it.
+            if(curCharacterText != null)
+                emitMention();
+
+            // See if we're entering a mention.
+            if(characterId > -1){
+                curCharacterText = new StringBuilder(original);
+                curCharacterGroupId = Integer.toString(characterId);
+                curCharacterStartOffset = tokenId;
+                curCharacterEndOffset = tokenId;
+                curCharacterNER = ner;
+
+            // Otherwise, mark that we're no longer processing an entity.
+            } else {
+                curCharacterText = null;
+            }
+        }
+
+        prevCharacterId = characterId;
+    }
+
+    /**
+     * Emits the mention in progress, if any. Call after the last token.
+     */
+    public void finish() {
+        if(curCharacterText != null)
+            emitMention();
+        curCharacterText = null;
+        prevCharacterId = -1;
+    }
+
+    /**
+     * Adds the current mention to the annotation, along with its group and
+     * entity if they're new.
+     */
+    private void emitMention() {
+        String text = curCharacterText.toString();
+        String entityId = curCharacterGroupId;
+
+        // Add new character if not a pronoun.
+        if(!curCharacterNER.equals("O")){
+            HashMap<String,String> names =
+                characterIdLookup.get(curCharacterGroupId);
+            if(names == null){
+                names = new HashMap<String, String>();
+                names.put(text, curCharacterGroupId);
+                characterIdLookup.put(curCharacterGroupId, names);
+
+                // Make a new group entry.
+                annotation.addGroup(Long.parseLong(curCharacterGroupId),
+                    text);
+            } else if(!names.containsKey(text)){
+                names.put(text, curCharacterGroupId +"-"+ names.size());
+            }
+            entityId = names.get(text);
+
+            // Entities get the next free id, in the order they're found.
+            if(!internalCharacterIdToEntity.containsKey(entityId))
+                internalCharacterIdToEntity.put(entityId,
+                    annotation.addEntity(CompactAnnotation.NEW_ID, text,
+                        Long.parseLong(curCharacterGroupId)));
+        }
+
+        // Add location (with no entity if this is a pronoun for a character
+        // that hasn't been named yet).
+        Integer entity = internalCharacterIdToEntity.get(entityId);
+        annotation.addLocation(curCharacterStartOffset, curCharacterEndOffset,
+            entity == null ? CompactAnnotation.NONE : entity);
+    }
+
+    /**
+     * @return The annotation built so far.
+     */
+    public CompactAnnotation getAnnotation() {
+        return annotation;
+    }
+}
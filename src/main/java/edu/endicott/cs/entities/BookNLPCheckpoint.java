@@ -0,0 +1,151 @@
+// Files:   BookNLPCheckpoint.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Records how far BookNLPProcessor.process got with an annotation, so a
+ * retried request (e.g., a job picked up again after its JVM was killed) can
+ * resume after the last expensive phase that finished rather than starting
+ * over. The checkpoint is a small JSON file in the annotation directory that
+ * names the last completed phase and the tokens file holding the Book's state
+ * at that point:
+ *
+ *  - syntax   -- tokens after syntax and supersense annotation
+ *  - annotate -- tokens after character, coreference, and quotation
+ *                annotation (ids.json and ids.html have also been written,
+ *                if planned)
+ *  - print    -- every output file has been written
+ *
+ * A checkpoint is only used if it was written for the same text (by hash),
+ * stage plan (see BookNLPStagePlan), and BookNLPModels.PIPELINE_VERSION, and
+ * its tokens file is still there with the length it had when the checkpoint
+ * was written.
+ */
+public class BookNLPCheckpoint {
+    public static final String FILE_NAME = "checkpoint.json";
+
+    public static final String SYNTAX = "syntax";
+    public static final String ANNOTATE = "annotate";
+    public static final String PRINT = "print";
+    private static final List<String> PHASES =
+        Arrays.asList(SYNTAX, ANNOTATE, PRINT);
+
+    private String phase;
+    private File tokensFile;
+
+    private BookNLPCheckpoint(String phase, File tokensFile) {
+        this.phase = phase;
+        this.tokensFile = tokensFile;
+    }
+
+    /**
+     * @return The last phase that completed.
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The tokens file holding the Book's state after `getPhase`.
+     */
+    public File getTokensFile() {
+        return tokensFile;
+    }
+
+    /**
+     * @param phase One of SYNTAX, ANNOTATE, or PRINT.
+     * @return Whether the given phase had completed when this checkpoint was
+     *         written.
+     */
+    public boolean reached(String phase) {
+        return PHASES.indexOf(this.phase) >= PHASES.indexOf(phase);
+    }
+
+    /**
+     * Reads the checkpoint in an annotation directory.
+     *
+     * @param annotationDirectory The annotation directory.
+     * @param textHash The hash of the text being annotated.
+     * @param plan The stage plan being run.
+     * @return The checkpoint, or null if there is none or it isn't valid for
+     *         the given text, plan, and the current pipeline.
+     */
+    public static BookNLPCheckpoint read(File annotationDirectory,
+            String textHash, String plan) {
+        File checkpointFile = new File(annotationDirectory, FILE_NAME);
+        if(!checkpointFile.exists())
+            return null;
+
+        try {
+            FileReader reader = new FileReader(checkpointFile);
+            JSONObject json;
+            try {
+                json = (JSONObject) new JSONParser().parse(reader);
+            } finally {
+                reader.close();
+            }
+
+            String phase = (String) json.get("phase");
+            File tokensFile = new File((String) json.get("tokens_file"));
+            if(!PHASES.contains(phase) ||
+                    !BookNLPModels.PIPELINE_VERSION.equals(
+                        json.get("pipeline_version")) ||
+                    !textHash.equals(json.get("text_hash")) ||
+                    !plan.equals(json.get("plan")) ||
+                    !tokensFile.exists() ||
+                    tokensFile.length() !=
+                        ((Number) json.get("tokens_file_length")).longValue())
+                return null;
+
+            return new BookNLPCheckpoint(phase, tokensFile);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records that a phase has completed. The checkpoint is written to a
+     * temporary file which is then renamed over the old one, so a crash while
+     * writing leaves the previous checkpoint in place.
+     *
+     * @param annotationDirectory The annotation directory.
+     * @param phase The phase that just completed.
+     * @param tokensFile The tokens file holding the Book's state.
+     * @param textHash The hash of the text being annotated.
+     * @param plan The stage plan being run.
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public static void write(File annotationDirectory, String phase,
+            File tokensFile, String textHash, String plan) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("phase", phase);
+        json.put("pipeline_version", BookNLPModels.PIPELINE_VERSION);
+        json.put("text_hash", textHash);
+        json.put("plan", plan);
+        json.put("tokens_file", tokensFile.getAbsolutePath());
+        json.put("tokens_file_length", tokensFile.length());
+
+        File checkpointFile = new File(annotationDirectory, FILE_NAME);
+        File tempFile = new File(annotationDirectory, FILE_NAME +".tmp");
+        PrintWriter out = new PrintWriter(tempFile);
+        out.print(json.toJSONString());
+        out.close();
+        Files.move(tempFile.toPath(), checkpointFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+}
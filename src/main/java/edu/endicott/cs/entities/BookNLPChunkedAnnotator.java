@@ -0,0 +1,322 @@
+// Files:   BookNLPChunkedAnnotator.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import novels.Token;
+
+/**
+ * Runs BookNLP's syntax and supersense annotation on a long text in parallel.
+ * The text is split into chunks of roughly `booknlp_chunk_characters`
+ * characters at paragraph breaks (blank lines), each chunk is annotated on a
+ * shared fork/join pool, and the chunks' tokens are stitched back together so
+ * that token ids, sentence ids, paragraph ids, byte offsets, and dependency
+ * heads are the same as if the text had been annotated as a whole.
+ *
+ * Chunks only ever end at a blank line. BookNLP always starts a new paragraph
+ * (and sentence) there, so splitting doesn't change how the text is
+ * segmented. Texts without blank lines are annotated as a single chunk.
+ *
+ * BookNLP decides, for each text it's given, whether single newlines end
+ * paragraphs (see TokenProcessor.hasNewlineParagraphs), so a chunk may not
+ * decide the same way the whole text would. Paragraph ids are therefore
+ * worked out again when the chunks are stitched together, from the
+ * whitespace after each token, with the decision made once for the whole
+ * text (or, for a file, its start, as TokenProcessor does).
+ *
+ * A text can be given as a string or as a file, which is then read a chunk
+ * at a time rather than all at once.
+ *
+ * Settings (see EntiTiesDispatcher.readEntiTiesConfigFile):
+ *
+ *  - booknlp_chunk_threads    (fork/join pool size; defaults to the number
+ *                              of processors)
+ *  - booknlp_chunk_characters (target chunk size; defaults to 50,000)
+ */
+public class BookNLPChunkedAnnotator {
+    public static final int DEFAULT_CHUNK_CHARACTERS = 50000;
+
+    private static final Pattern PARAGRAPH_BREAK =
+        Pattern.compile("\\n[ \\t\\x0B\\f\\r]*\\n\\s*");
+
+    private static ForkJoinPool pool = null;
+    private static int chunkCharacters = DEFAULT_CHUNK_CHARACTERS;
+
+    /**
+     * Creates the shared pool. Calling this more than once has no effect.
+     *
+     * @param settings The settings read from the configuration file.
+     */
+    public static synchronized void initialize(
+            HashMap<String, String> settings) {
+        if(pool != null)
+            return;
+
+        int threads = EntiTiesWorkerPool.getIntSetting(settings,
+            "booknlp_chunk_threads",
+            Runtime.getRuntime().availableProcessors());
+        chunkCharacters = EntiTiesWorkerPool.getIntSetting(settings,
+            "booknlp_chunk_characters", DEFAULT_CHUNK_CHARACTERS);
+
+        // Chunk threads do the same work as the bulk lane, so they run at the
+        // same low priority.
+        pool = new ForkJoinPool(Math.max(1, threads),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.
+                        defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("booknlp-chunk-"+ thread.getPoolIndex());
+                    thread.setPriority(EntiTiesWorkerPool.BULK_THREAD_PRIORITY);
+                    return thread;
+                }
+            }, null, false);
+    }
+
+    /**
+     * Annotates a text with syntax and, optionally, supersenses.
+     *
+     * @param text The text to annotate.
+     * @param models The shared BookNLP models.
+     * @param supersenses Whether to add supersenses.
+     * @return The text's tokens, numbered from the start of the text.
+     * @throws Exception If annotating any chunk fails.
+     */
+    public static ArrayList<Token> annotate(String text,
+            final BookNLPModels models, final boolean supersenses)
+            throws Exception {
+        if(pool == null)
+            initialize(new HashMap<String, String>());
+
+        ArrayList<Integer> chunkStarts = findChunkStarts(text);
+        if(chunkStarts.size() == 1){
+            ArrayList<Token> tokens = models.annotateSyntax(text);
+            if(supersenses)
+                models.annotateSupersenses(tokens);
+            return tokens;
+        }
+
+        boolean newlineParagraphs = TokenProcessor.hasNewlineParagraphs(text);
+
+        // Annotate each chunk on the pool.
+        ArrayList<Callable<ArrayList<Token>>> tasks =
+            new ArrayList<Callable<ArrayList<Token>>>();
+        for(int i = 0; i < chunkStarts.size(); i++){
+            int end = i+1 < chunkStarts.size() ?
+                chunkStarts.get(i+1) : text.length();
+            tasks.add(createTask(text.substring(chunkStarts.get(i), end),
+                models, supersenses));
+        }
+        List<Future<ArrayList<Token>>> results = pool.invokeAll(tasks);
+
+        return stitch(results, chunkStarts, newlineParagraphs);
+    }
+
+    /**
+     * Annotates a text file the same way `annotate(String, ...)` annotates
+     * its contents, without reading all of it into memory: chunks are read
+     * (see EntiTiesTextReader) and handed to the pool as they're needed, and
+     * only a few more chunks' text than there are pool threads is held in
+     * memory at once (the tokens of every chunk are kept until they're
+     * stitched together).
+     *
+     * @param textFile The text file (UTF-8) to annotate.
+     * @param models The shared BookNLP models.
+     * @param supersenses Whether to add supersenses.
+     * @return The text's tokens, numbered from the start of the text.
+     * @throws Exception If reading the file or annotating any chunk fails.
+     */
+    public static ArrayList<Token> annotate(File textFile,
+            BookNLPModels models, boolean supersenses) throws Exception {
+        if(pool == null)
+            initialize(new HashMap<String, String>());
+
+        int maxInFlight = 2 * pool.getParallelism();
+        ArrayList<Future<ArrayList<Token>>> results =
+            new ArrayList<Future<ArrayList<Token>>>();
+        ArrayList<Integer> chunkStarts = new ArrayList<Integer>();
+        boolean newlineParagraphs;
+        EntiTiesTextReader reader = new EntiTiesTextReader(textFile);
+        try {
+            newlineParagraphs = TokenProcessor.hasNewlineParagraphs(
+                reader.peek(TokenProcessor.PARAGRAPH_SAMPLE_CHARACTERS));
+            String chunk;
+            while((chunk = reader.nextChunk(
+                    chunkCharacters, Integer.MAX_VALUE)) != null){
+                // Wait for room before reading further ahead.
+                if(results.size() >= maxInFlight)
+                    getTokens(results.get(results.size() - maxInFlight));
+                chunkStarts.add(reader.getChunkStart());
+                results.add(pool.submit(
+                    createTask(chunk, models, supersenses)));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return stitch(results, chunkStarts, newlineParagraphs);
+    }
+
+    /**
+     * @param chunk The chunk to annotate.
+     * @param models The shared BookNLP models.
+     * @param supersenses Whether to add supersenses.
+     * @return A task that annotates the chunk.
+     */
+    private static Callable<ArrayList<Token>> createTask(String chunk,
+            BookNLPModels models, boolean supersenses) {
+        return new ChunkTask(chunk, models, supersenses);
+    }
+
+    /**
+     * Annotates a chunk. The pool's future for the task holds on to the task
+     * until the chunks are stitched together, so the task lets go of the
+     * chunk's text once it starts.
+     */
+    private static class ChunkTask implements Callable<ArrayList<Token>> {
+        private String chunk;
+        private BookNLPModels models;
+        private boolean supersenses;
+
+        ChunkTask(String chunk, BookNLPModels models, boolean supersenses) {
+            this.chunk = chunk;
+            this.models = models;
+            this.supersenses = supersenses;
+        }
+
+        public ArrayList<Token> call() {
+            String text = chunk;
+            chunk = null;
+            ArrayList<Token> tokens = models.annotateSyntax(text);
+            if(supersenses)
+                models.annotateSupersenses(tokens);
+            return tokens;
+        }
+    }
+
+    /**
+     * Waits for a chunk to be annotated.
+     *
+     * @param result The chunk's task.
+     * @return The chunk's tokens.
+     * @throws Exception If annotating the chunk failed.
+     */
+    private static ArrayList<Token> getTokens(
+            Future<ArrayList<Token>> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Stitches annotated chunks back together, in order, renumbering their
+     * tokens from the start of the text. If there's more than one chunk,
+     * paragraphs are numbered again from the whitespace after each token.
+     *
+     * @param results Each chunk's task.
+     * @param chunkStarts The offset of the start of each chunk in the text.
+     * @param newlineParagraphs Whether single newlines end paragraphs.
+     * @return The text's tokens.
+     * @throws Exception If annotating any chunk failed.
+     */
+    private static ArrayList<Token> stitch(
+            List<Future<ArrayList<Token>>> results,
+            List<Integer> chunkStarts, boolean newlineParagraphs)
+            throws Exception {
+        ArrayList<Token> allTokens = new ArrayList<Token>();
+        int sentenceBase = 0, paragraphBase = 0, paragraph = 0;
+        boolean renumberParagraphs = results.size() > 1;
+        for(int i = 0; i < results.size(); i++){
+            ArrayList<Token> tokens = getTokens(results.get(i));
+            if(tokens.isEmpty())
+                continue;
+
+            int tokenBase = allTokens.size();
+            int offsetBase = chunkStarts.get(i);
+            for(Token token : tokens){
+                token.tokenId += tokenBase;
+                token.sentenceID += sentenceBase;
+                if(renumberParagraphs){
+                    token.p = paragraph;
+                    if(isParagraphBreak(token.whitespaceAfter,
+                            newlineParagraphs))
+                        paragraph++;
+                } else {
+                    token.p += paragraphBase;
+                }
+                token.beginOffset += offsetBase;
+                token.endOffset += offsetBase;
+                if(token.head >= 0)
+                    token.head += tokenBase;
+                allTokens.add(token);
+            }
+
+            // The next chunk starts a new sentence and paragraph.
+            Token last = tokens.get(tokens.size()-1);
+            sentenceBase = last.sentenceID + 1;
+            paragraphBase = last.p + 1;
+        }
+
+        return allTokens;
+    }
+
+    /**
+     * Sees if the whitespace after a token ends a paragraph, by the same
+     * rule as TokenProcessor: it's all newlines, and there are two or more
+     * of them or single newlines end paragraphs.
+     *
+     * @param whitespace The whitespace after a token, as Token holds it
+     *                   (newlines may be encoded as "N").
+     * @param newlineParagraphs Whether single newlines end paragraphs.
+     * @return Whether a new paragraph starts after the token.
+     */
+    private static boolean isParagraphBreak(String whitespace,
+            boolean newlineParagraphs) {
+        if(whitespace == null || whitespace.isEmpty())
+            return false;
+        int length = whitespace.length();
+        for(int i = 0; i < length; i++){
+            char c = whitespace.charAt(i);
+            if(c != '\n' && c != 'N')
+                return false;
+        }
+        return length >= 2 || newlineParagraphs;
+    }
+
+    /**
+     * Finds where each chunk of a text starts. Every chunk but the last ends
+     * just after a paragraph break, and is at least `chunkCharacters` long.
+     *
+     * @param text The text to split.
+     * @return The offset of the start of each chunk; the first is always 0.
+     */
+    private static ArrayList<Integer> findChunkStarts(String text) {
+        ArrayList<Integer> chunkStarts = new ArrayList<Integer>();
+        chunkStarts.add(0);
+
+        Matcher matcher = PARAGRAPH_BREAK.matcher(text);
+        int chunkStart = 0;
+        while(chunkStart + chunkCharacters < text.length() &&
+                matcher.find(chunkStart + chunkCharacters) &&
+                matcher.end() < text.length()){
+            chunkStart = matcher.end();
+            chunkStarts.add(chunkStart);
+        }
+        return chunkStarts;
+    }
+}
@@ -0,0 +1,182 @@
+// Files:   BookNLPModels.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import novels.Book;
+import novels.Dictionaries;
+import novels.Token;
+import novels.annotators.CoreferenceAnnotator;
+import novels.annotators.SupersenseAnnotator;
+import novels.annotators.SyntaxAnnotator;
+
+/**
+ * The read-only BookNLP resources shared by every BookNLP request in this
+ * process: the CoreNLP syntax pipeline, the supersense tagger, the coreference
+ * weights, and the animacy and gender dictionaries. Loading these takes many
+ * seconds, so the dispatcher starts loading them in the background when it
+ * starts up (see `startWarmUp`) and requests wait for them with `get`.
+ *
+ * The syntax annotator's CoreNLP pipeline may be used by several threads at
+ * once. The supersense tagger and coreference resolver keep working state
+ * between calls, so each is used by one request at a time.
+ */
+public class BookNLPModels {
+    public static final String ANIMACY_FILE =
+        "files/stanford/animate.unigrams.txt";
+    public static final String GENDER_FILE =
+        "files/stanford/namegender.combine.txt";
+    public static final String FEMALE_FILE =
+        "files/stanford/female.unigrams.txt";
+    public static final String MALE_FILE = "files/stanford/male.unigrams.txt";
+    public static final String COREF_WEIGHTS_FILE = "files/coref.weights";
+
+    /**
+     * Identifies the output of the syntax and supersense passes; cached
+     * tokens from other versions are ignored (see BookNLPProcessor). Change
+     * this whenever the models or those passes change.
+     */
+    public static final String PIPELINE_VERSION = "booknlp-1";
+
+    private static volatile BookNLPModels instance = null;
+    private static Exception loadError = null;
+    private static final CountDownLatch loaded = new CountDownLatch(1);
+    private static boolean loadStarted = false;
+
+    private SyntaxAnnotator syntaxAnnotator;
+    private SupersenseAnnotator supersenseAnnotator;
+    private CoreferenceAnnotator corefAnnotator;
+    private Dictionaries dictionaries;
+
+    /**
+     * Loads every resource. Only called by `load`.
+     */
+    private BookNLPModels() {
+        dictionaries = new Dictionaries();
+        dictionaries.readAnimate(
+            ANIMACY_FILE, GENDER_FILE, MALE_FILE, FEMALE_FILE);
+
+        corefAnnotator = new CoreferenceAnnotator();
+        corefAnnotator.readWeights(COREF_WEIGHTS_FILE);
+
+        syntaxAnnotator = new SyntaxAnnotator();
+        supersenseAnnotator = new SupersenseAnnotator();
+    }
+
+    /**
+     * Starts loading the models on a background thread, if they aren't
+     * already loaded or loading.
+     *
+     * @param logger The server's logger.
+     */
+    public static synchronized void startWarmUp(final EntiTiesLogger logger) {
+        if(loadStarted)
+            return;
+        loadStarted = true;
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                load(logger);
+            }
+        }, "booknlp-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads the models on the calling thread and records the result.
+     *
+     * @param logger The server's logger, or null.
+     */
+    private static void load(EntiTiesLogger logger) {
+        long start = System.currentTimeMillis();
+        if(logger != null)
+            logger.log("BookNLPModels: Loading BookNLP models.");
+        try {
+            instance = new BookNLPModels();
+            if(logger != null)
+                logger.log("BookNLPModels: Ready after "+
+                    (System.currentTimeMillis() - start) +" ms.");
+        } catch (Exception e) {
+            loadError = e;
+            if(logger != null)
+                logger.log("BookNLPModels: Couldn't load models: "+ e);
+            e.printStackTrace();
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * @return Whether the models have finished loading successfully.
+     */
+    public static boolean isReady() {
+        return instance != null;
+    }
+
+    /**
+     * Waits for the models to finish loading, loading them on this thread if
+     * nobody has started to (e.g., when BookNLPProcessor is run on its own).
+     *
+     * @return The shared models.
+     * @throws Exception If the models couldn't be loaded.
+     */
+    public static BookNLPModels get() throws Exception {
+        boolean loadHere = false;
+        synchronized(BookNLPModels.class){
+            if(!loadStarted){
+                loadStarted = true;
+                loadHere = true;
+            }
+        }
+        if(loadHere)
+            load(null);
+
+        loaded.await();
+        if(instance == null)
+            throw new Exception("BookNLP models failed to load: "+ loadError);
+        return instance;
+    }
+
+    /**
+     * @return The animacy and gender dictionaries. These are only read.
+     */
+    public Dictionaries getDictionaries() {
+        return dictionaries;
+    }
+
+    /**
+     * Tokenizes, tags, and parses a text.
+     *
+     * @param text The text to process.
+     * @return The text's tokens.
+     */
+    public ArrayList<Token> annotateSyntax(String text) {
+        return syntaxAnnotator.process(text);
+    }
+
+    /**
+     * Labels each token with its supersense.
+     *
+     * @param tokens The tokens to label.
+     */
+    public void annotateSupersenses(ArrayList<Token> tokens) {
+        synchronized(supersenseAnnotator){
+            supersenseAnnotator.process(tokens);
+        }
+    }
+
+    /**
+     * Resolves the pronouns in a book to characters.
+     *
+     * @param book The book to annotate.
+     */
+    public void resolvePronouns(Book book) {
+        synchronized(corefAnnotator){
+            corefAnnotator.resolvePronouns(book);
+        }
+    }
+}
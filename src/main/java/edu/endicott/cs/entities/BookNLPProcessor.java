@@ -9,6 +9,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Writer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -18,6 +19,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import novels.annotators.CharacterAnnotator;
 import novels.annotators.CharacterFeatureAnnotator;
@@ -50,7 +54,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
 
-import edu.endicott.cs.entities.annotations.Annotation;
+import edu.endicott.cs.entities.annotations.CompactAnnotation;
 import edu.endicott.cs.entities.annotations.Tie;
 import edu.endicott.cs.entities.annotations.TieEntity;
 import edu.endicott.cs.entities.annotations.Entity;
@@ -68,13 +72,6 @@ import edu.endicott.cs.entities.annotations.Location;
  */
 public class BookNLPProcessor extends Processor {
 
-    private static final String animacyFile = "files/stanford/animate.unigrams.txt";
-    private static final String genderFile = "files/stanford/namegender.combine.txt";
-    private static final String femaleFile = "files/stanford/female.unigrams.txt";
-    private static final String maleFile = "files/stanford/male.unigrams.txt";
-    private static final String corefWeights = "files/coref.weights";
-
-
     private static final int TOKEN_ID_COLUMN = 2;
     private static final int ORIGINAL_WORD_COLUMN = 7;
     private static final int POS_COLUMN = 10;
@@ -87,6 +84,15 @@ public class BookNLPProcessor extends Processor {
     private static final String ANNOTATION_JSON_FILE_NAME = "annotation.json";
     private static final String IDS_HTML_FILE_NAME = "ids.html";
     private static final String IDS_JSON_FILE_NAME = "ids.json";
+    private static final String SYNTAX_CACHE_FILE_PREFIX = "tokens-";
+
+    private BookNLPStagePlan plan = BookNLPStagePlan.all();
+    private File outputDirectory, tokensFile;
+    private String textHash;
+    private ArrayList<Future<?>> pendingWrites = new ArrayList<Future<?>>();
+    private File tokensJSONFile, tokensJSONTempFile;
+    private String jobRequest = null;
+    private boolean deferred = false;
 
     // private static final HashSet<String> NOUN_TYPES = new HashSet<String>();
     // static {
@@ -104,17 +110,20 @@ public class BookNLPProcessor extends Processor {
      * 	- texts directory (where text records are stored)
      *  - text name
      *  - annotation id
+     *  - stage plan (optional; which analyses and files to produce -- see
+     *    BookNLPStagePlan; defaults to all of them)
      * 
      * This process will look for the content of the book in 
      * <texts directory>/<text id>/original.txt. It will create the following 
      * files in <texts directory>/<text id>/<annotation id>:
      * 
      *  - tokens.tsv      -- token information (TSV format)
-     *  - tokens.json     -- token information (JSON format)
+     *  - tokens.json     -- token information (JSON format; only if planned)
      *  - annotation.json -- annotation data (JSON format; also stored in the
      *                       annotations table of the database)
-     *  - ids.json        -- marked up tokens (JSON format)
-     *  - ids.html        -- marked up tokens (HTML)
+     *  - ids.json        -- marked up tokens (JSON format; only if planned)
+     *  - ids.html        -- marked up tokens (HTML; only if planned)
+     *  - checkpoint.json -- how far processing got (see BookNLPCheckpoint)
      * 
      * TODO describe the format of these files.
      * 
@@ -128,16 +137,24 @@ public class BookNLPProcessor extends Processor {
      * If the arguments are not verified, or ids are not found in the database,
      * an error is printed to the socket and closed.
      * 
-     * @return Whether processing completed successfully or not.
+     * If `deferAsJob` was called first, processing is not done here. Instead,
+     * once the arguments are verified the request is added to the jobs table,
+     * "success\n" is printed to the socket, and the socket is closed; an
+     * EntiTiesJobWorker will run the request later.
+     * 
+     * @return Whether processing (or queueing) completed successfully or not.
      */
     public boolean processRequest(EntiTiesSocket socket, String argsString, 
-            EntiTiesLogger.RequestLogger logger, EntiTiesDatabase database){
+            EntiTiesLogger.RequestLogger logger, 
+            EntiTiesPipelineContext context){
 
         EntiTiesFileManager fileManager;
-        String directoryPath, name, annotation;
+        String directoryPath, name;
+        CompactAnnotation annotation;
         int textId = -1, annotationId = -1;
         File annotationDirectory, bookFile;
         this.logger = logger;
+        database = context.getDatabase();
         boolean completedSuccessfully = false;
 
         try {
@@ -147,11 +164,11 @@ public class BookNLPProcessor extends Processor {
             logger.log("Message received:");
             logger.log(argsString);
 
-            // Check that there are exactly three arguments.
-            if(args.length != 4){
-                error(socket.out, "Error: there should be 5 tab"+
+            // Check that there are four or five arguments.
+            if(args.length != 4 && args.length != 5){
+                error(socket.out, "Error: there should be 4 or 5 tab"+
                     "-delimited arguments (text id, directory, book "+
-                    "name, annotation id), not "+ 
+                    "name, annotation id[, stage plan]), not "+ 
                     (args.length));
                 return false;
             }
@@ -161,6 +178,14 @@ public class BookNLPProcessor extends Processor {
             directoryPath = args[1];
             name = args[2];
             annotationId = Integer.parseInt(args[3]);
+            if(args.length == 5){
+                try {
+                    plan = BookNLPStagePlan.parse(args[4]);
+                } catch (IllegalArgumentException e) {
+                    error(socket.out, "Error: "+ e.getMessage());
+                    return false;
+                }
+            }
 
             // Check that the directory and book exist.
             fileManager = new EntiTiesFileManager(
@@ -183,8 +208,8 @@ public class BookNLPProcessor extends Processor {
             if(!annotationDirectory.exists())
                 annotationDirectory.mkdir();
 
-            // Check that we can open the database.
-            if(!database.openConnection()){
+            // Check that we have a database connection.
+            if(!database.isConnected()){
                 error(socket.out, "Error: could not establish a database "+
                             "connection.");
                 return false;
@@ -196,23 +221,33 @@ public class BookNLPProcessor extends Processor {
                 case ID_ALREADY_PROCESSED:
                     error(socket.out, 
                         "Error: this annotation has already been processed.");
-                    database.close();
                     return false;
                 case ID_NOT_PRESENT:
                     error(socket.out, 
                         "Error: no annotation with this id exists in "+
                         "the database.");
-                    database.close();
                     return false;
                 case ERROR_QUERYING_DB:
                     error(socket.out, 
                         "Error: couldn't query the metadata table.");
-                    database.close();
                     return false;
                 default:
                     break;
             }
 
+            // Queue the request to be run by a job worker.
+            if(jobRequest != null){
+                if(!database.enqueueJob("booknlp", annotationId, jobRequest)){
+                    error(socket.out, "Error: couldn't queue the request.");
+                    return false;
+                }
+                socket.println("success");
+                logger.log("Successfully parsed parameters; request queued.");
+                socket.close();
+                deferred = true;
+                return true;
+            }
+
             // Let the client know that the request was received 
             // successfully.
             socket.println("success");
@@ -220,17 +255,27 @@ public class BookNLPProcessor extends Processor {
             socket.close();
 
             // Process the book.
-            process(annotationDirectory, bookFile);
+            Book book = process(fileManager);
             
-            // Output the entity info.
-            logger.log("Processing token file to generate json files.");
-            annotation = processTokensFile(annotationDirectory);
-            if(!database.postAnnotation(annotationId, annotation))
+            // Output the entity info, from the book if we have it; otherwise
+            // (if processing resumed past annotation) from the token file.
+            if(book != null){
+                logger.log("Generating json files from tokens.");
+                annotation = processBook(book, annotationDirectory);
+            } else {
+                logger.log("Processing token file to generate json files.");
+                annotation = processTokensFile(annotationDirectory);
+            }
+            // Wait for the output files to be written before posting the
+            // annotation, so a failed write isn't reported as a finished
+            // annotation.
+            finishWrites();
+
+            if(!context.saveAnnotation(annotationId, annotation))
                 logger.log("Error: unable to post annotation to database.");
             else
                 completedSuccessfully = true;
 
-
         } catch (SQLException e) {
             logger.log("Problems connecting to the database.");
             e.printStackTrace();
@@ -255,13 +300,6 @@ public class BookNLPProcessor extends Processor {
                 logger.log("Couldn't close a socket, what's going on?");
                 e.printStackTrace();
                 completedSuccessfully = false;
-            } finally {
-                try{
-                    database.close();
-                } catch (SQLException e) {
-                    logger.log("Couldn't close database connection.");
-                    completedSuccessfully = false;
-                }
             }
             logger.log("Connection closed");
         }
@@ -270,6 +308,25 @@ public class BookNLPProcessor extends Processor {
     }
 
 
+    /**
+     * Has `processRequest` queue the given request in the jobs table after
+     * checking its arguments, rather than processing the book itself.
+     * 
+     * @param jobRequest The request to queue (this stage and any after it).
+     */
+    public void deferAsJob(String jobRequest) {
+        this.jobRequest = jobRequest;
+    }
+
+    /**
+     * @return Whether the last call to `processRequest` queued its request as
+     *         a job.
+     */
+    public boolean wasDeferred() {
+        return deferred;
+    }
+
+
     // /**
     //  * Annotate a book with characters, coreference and quotations
     //  * 
@@ -322,32 +379,99 @@ public class BookNLPProcessor extends Processor {
 
     // }
 
+    /**
+     * Annotates a book with characters and coreference using the shared
+     * models. This is BookNLP.process(Book), minus reloading the dictionaries
+     * and coref weights each time.
+     * 
+     * @param book The book to annotate.
+     * @param models The shared BookNLP models.
+     */
+    private void annotateBook(Book book, BookNLPModels models) {
+        SyntaxAnnotator.setDependents(book);
+
+        Dictionaries dicts = models.getDictionaries();
+        dicts.processHonorifics(book.tokens);
+
+        CharacterAnnotator charFinder = new CharacterAnnotator();
+        charFinder.findCharacters(book, dicts);
+        charFinder.resolveCharacters(book, dicts);
+
+        PhraseAnnotator phraseFinder = new PhraseAnnotator();
+        phraseFinder.getPhrases(book, dicts);
+
+        models.resolvePronouns(book);
+        charFinder.resolveRemainingGender(book);
+    }
+
     /**
      * Processes the given text and generates several files. See the
      * run method for details.
      * 
-     * @param outputDirectory The directory where output files will be written.
-     * @param bookFile The input text file to process.
+     * The tokens produced by the syntax and supersense passes are cached in
+     * the text's cache directory, keyed by the text's hash and
+     * BookNLPModels.PIPELINE_VERSION, so later annotations of the same text
+     * skip those passes.
+     * 
+     * After each expensive phase a checkpoint is written to the annotation
+     * directory (see BookNLPCheckpoint). If this annotation was already
+     * partly processed (e.g., by a job that was interrupted), processing
+     * resumes after the last phase that completed.
+     * 
+     * Output files are written in the background; call `finishWrites`
+     * before saving the annotation.
+     * 
+     * @param fileManager Locates the text (original.txt) and the annotation
+     *                    directory where output files will be written.
+     * @return The annotated book, or null if annotation had already been done
+     *         by an earlier attempt (the token file has the results).
      */
-    public void process(File outputDirectory, File bookFile) 
-    throws Exception {
-
-        BookNLP bookNLP = new BookNLP();
+    public Book process(EntiTiesFileManager fileManager) throws Exception {
+        File outputDirectory = fileManager.getAnnotationDirectory();
+        File bookFile = fileManager.getTextFile("original.txt");
+        String textHash = EntiTiesFileManager.hashFile(bookFile);
+        BookNLPCheckpoint checkpoint = BookNLPCheckpoint.read(
+            outputDirectory, textHash, plan.toString());
+        boolean supersenses = plan.includes(BookNLPStagePlan.SUPERSENSE);
+
+        // Wait for the shared models if they're still loading.
+        if(!BookNLPModels.isReady())
+            logger.log("Waiting for BookNLP models to load.");
+        BookNLPModels models = BookNLPModels.get();
 
         // Generate or read tokens
         ArrayList<Token> tokens = null;
         File tokensFile = new File(outputDirectory, TOKENS_TSV_FILE_NAME);
 
-        if (!tokensFile.exists()) {
-            String text = Util.readText(bookFile.getPath());
-            //text = Util.filterGutenberg(text);
-            SyntaxAnnotator syntaxAnnotator = new SyntaxAnnotator();
-            tokens = syntaxAnnotator.process(text);
-            
-            logger.log("Processing supersenses");
-            
-            SupersenseAnnotator supersenseAnnotator=new SupersenseAnnotator();
-            supersenseAnnotator.process(tokens);
+        if(checkpoint != null){
+            logger.log("Resuming after the "+ checkpoint.getPhase() +
+                " phase.");
+            if(checkpoint.reached(BookNLPCheckpoint.PRINT))
+                return null;
+            tokens = SyntaxAnnotator.readDoc(
+                checkpoint.getTokensFile().getPath());
+
+        } else if (!tokensFile.exists()) {
+            // Tokens with supersenses will do in place of tokens without.
+            File cacheFile = getTokensCacheFile(fileManager, textHash, true);
+            if(!supersenses && !cacheFile.exists())
+                cacheFile = getTokensCacheFile(fileManager, textHash, false);
+
+            if(cacheFile.exists()){
+                logger.log("Using cached tokens: "+ cacheFile.getPath());
+                tokens = SyntaxAnnotator.readDoc(cacheFile.getPath());
+            } else {
+                // The text is read from the file a chunk at a time.
+                logger.log(supersenses ? "Processing syntax and supersenses" :
+                    "Processing syntax");
+                tokens = BookNLPChunkedAnnotator.annotate(
+                    bookFile, models, supersenses);
+                writeTokensCache(tokens, cacheFile);
+            }
+            if(cacheFile.exists())
+                BookNLPCheckpoint.write(outputDirectory, 
+                    BookNLPCheckpoint.SYNTAX, cacheFile, textHash, 
+                    plan.toString());
             
         } else {
             if (tokensFile.exists()) {
@@ -359,18 +483,148 @@ public class BookNLPProcessor extends Processor {
         }
 
         Book book = new Book(tokens);
-        bookNLP.weights = BookNLPProcessor.corefWeights;
-        logger.log("Using default coref weights");
-
         book.id = IDS_JSON_FILE_NAME;
-        bookNLP.process(book, outputDirectory, book.id);
+        boolean annotated = false;
+        this.tokensFile = tokensFile;
+        this.outputDirectory = outputDirectory;
+        this.textHash = textHash;
+
+        if(checkpoint == null || 
+                !checkpoint.reached(BookNLPCheckpoint.ANNOTATE)){
+            logger.log("Using default coref weights");
+            annotateBook(book, models);
+
+            if(plan.includes(BookNLPStagePlan.QUOTATIONS)){
+                QuotationAnnotator quoteFinder = new QuotationAnnotator();
+                quoteFinder.findQuotations(book);
+            }
+
+            if(plan.includes(BookNLPStagePlan.FEATURES)){
+                CharacterFeatureAnnotator featureAnno = 
+                    new CharacterFeatureAnnotator();
+                featureAnno.annotatePaths(book);
+            }
+
+            // Print out BookNLP's files in the background; nothing in this
+            // request reads them back.
+            startBookFiles(book);
+            annotated = true;
+        }
+
+        return annotated ? book : null;
+    }
+
+    /**
+     * Starts writing ids.json and ids.html (if planned) and the token file
+     * for an annotated book in the background. Once they're all written, the
+     * annotate checkpoint is recorded.
+     * 
+     * ids.html needs the book's characters and quotations, which aren't in
+     * the token file, so it's written here rather than after resuming.
+     * 
+     * @param book The annotated book.
+     */
+    private void startBookFiles(final Book book) {
+        final Future<File> idsJSONWrite = 
+            !plan.includes(BookNLPStagePlan.IDS_JSON) ? null :
+            EntiTiesArtifactWriter.submitFile(
+                new File(outputDirectory, book.id),
+                new EntiTiesArtifactWriter.FileContent() {
+                    public void writeTo(File file) {
+                        PrintUtil.printBookJson(book, file);
+                    }
+                });
+        final Future<File> idsHTMLWrite = 
+            !plan.includes(BookNLPStagePlan.IDS_HTML) ? null :
+            EntiTiesArtifactWriter.submitFile(
+                new File(outputDirectory, IDS_HTML_FILE_NAME),
+                new EntiTiesArtifactWriter.FileContent() {
+                    public void writeTo(File file) {
+                        PrintUtil.printWithLinksAndCorefAndQuotes(
+                            file, book);
+                    }
+                });
+
+        pendingWrites.add(EntiTiesArtifactWriter.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                EntiTiesArtifactWriter.writeFile(tokensFile, 
+                    new EntiTiesArtifactWriter.FileContent() {
+                        public void writeTo(File file) {
+                            PrintUtil.printTokens(book, file.getPath());
+                        }
+                    });
+                if(idsJSONWrite != null)
+                    idsJSONWrite.get();
+                if(idsHTMLWrite != null)
+                    idsHTMLWrite.get();
+                BookNLPCheckpoint.write(outputDirectory, 
+                    BookNLPCheckpoint.ANNOTATE, tokensFile, textHash, 
+                    plan.toString());
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Waits for every output file started in the background to be written,
+     * then records that processing finished.
+     * 
+     * @throws Exception If any file couldn't be written.
+     */
+    public void finishWrites() throws Exception {
+        Exception error = null;
+        for(Future<?> write : pendingWrites){
+            try {
+                write.get();
+            } catch (ExecutionException e) {
+                logger.log("Couldn't write an output file: "+ e.getCause());
+                error = e;
+            }
+        }
+        pendingWrites.clear();
+        if(error != null)
+            throw error;
 
-        
-        File htmlOutfile = new File(outputDirectory, IDS_HTML_FILE_NAME);
-        PrintUtil.printWithLinksAndCorefAndQuotes(htmlOutfile, book);
+        if(tokensFile != null)
+            BookNLPCheckpoint.write(outputDirectory, BookNLPCheckpoint.PRINT,
+                tokensFile, textHash, plan.toString());
+    }
 
-        // Print out tokens
-        PrintUtil.printTokens(book, tokensFile.getPath());
+    /**
+     * @param fileManager Locates the text's cache directory.
+     * @param textHash The hash of the text.
+     * @param supersenses Whether the tokens include supersenses.
+     * @return The cache file for the text's tokens.
+     */
+    private File getTokensCacheFile(EntiTiesFileManager fileManager,
+            String textHash, boolean supersenses) {
+        return fileManager.getTextCacheFile(SYNTAX_CACHE_FILE_PREFIX + 
+            (supersenses ? "" : "nosupersense-") +
+            BookNLPModels.PIPELINE_VERSION +"-"+ textHash +".tsv");
+    }
+
+    /**
+     * Saves tokens to the text's cache. The tokens are written to a temporary
+     * file which is then renamed, so other requests never see a partly
+     * written cache file. A failure is logged but otherwise ignored.
+     * 
+     * @param tokens The tokens to save.
+     * @param cacheFile The cache file to write.
+     */
+    private void writeTokensCache(final ArrayList<Token> tokens, 
+            File cacheFile) {
+        try {
+            EntiTiesArtifactWriter.writeFile(cacheFile, 
+                new EntiTiesArtifactWriter.FileContent() {
+                    public void writeTo(File file) {
+                        PrintUtil.printTokens(new Book(tokens), 
+                            file.getPath());
+                    }
+                });
+        } catch (Exception e) {
+            logger.log("Couldn't cache tokens in "+ cacheFile.getPath() +
+                ": "+ e);
+        }
     }
 
     /**
@@ -379,174 +633,137 @@ public class BookNLPProcessor extends Processor {
      * to two files:
      * 
      *  - annotation.json
-     *  - tokens.json
+     *  - tokens.json (only if the stage plan includes it)
      * 
      * @param outputDirectory The directory where output files will be written.
-     * @return The annotation as a JSON string.
+     * @return The annotation.
      * @throws IOException
      */
-    public String processTokensFile(File outputDirectory) throws Exception {
-        HashMap<String, HashMap<String,String>> characterIdLookup = 
-            new HashMap<String, HashMap<String,String>>();
-
-        JSONArray tokens = new JSONArray();
-
-        Annotation annotation = new Annotation();
-        String jsonAnnotation;
-
-
-        String curCharacterText = null;
-        String curCharacterGroupId = null;
-        String curCharacterPOS = null;
-        String curCharacterNER = null;
-        int curCharacterStartOffset = -1;
-        int curCharacterEndOffset = -1;
-
-        int prevCharacterId = -1; 
-
-        HashMap<String, String> internalToExternalCharacterId = 
-            new HashMap<String, String>();
-        long lastEntityId = 0;
+    public CompactAnnotation processTokensFile(File outputDirectory)
+            throws Exception {
+        BookNLPAnnotationBuilder builder = new BookNLPAnnotationBuilder();
+        EntiTiesJSONWriter tokensJSON = openTokensJSON(outputDirectory);
 
         File tokensFile = new File(outputDirectory, TOKENS_TSV_FILE_NAME);
-        BufferedReader tokensFileBuffer = 
-            new BufferedReader(new FileReader(tokensFile)); 
-        String line = tokensFileBuffer.readLine();
-
-        // Skip the header.
-        line = tokensFileBuffer.readLine();
-
-        // Go through each line of the file.
-        while(line != null){
-            // log(line);
-            // log("curCharacterText: "+ curCharacterText +"; "+
-            //     "curCharacterGroupId: "+ curCharacterGroupId +"; "+
-            //     "curCharacterPOS: "+ curCharacterPOS +"; "+
-            //     "curCharacterStartOffset: "+ curCharacterStartOffset +"; "+
-            //     "curCharacterEndOffset: "+ curCharacterEndOffset
-            //     );
-            // parse the line into columns.
-            String[] cols = line.split("\\t");
-
-            int characterId = 
-                Integer.parseInt(cols[CHARACTER_ID_COLUMN]);
-            char supersenseStart = cols[SUPERSENSE_COLUMN].charAt(0);
-
-            // See if we're in a entity (col 15 > -1, col 16)
-            // if(characterId > -1 && supersenseStart == 'I' && curCharacterText != null) {
-            if(characterId > -1 && characterId == prevCharacterId) {
-                // log("Found continuation of character.");
-                curCharacterText += " "+ cols[ORIGINAL_WORD_COLUMN];
-                curCharacterEndOffset = 
-                    Integer.parseInt(cols[TOKEN_ID_COLUMN]);
-        
-            } else {
-                // Were we in one before? -- emit it.
-                if(curCharacterText != null){
-                    // log("Ended character location (NNP or Pronoun), processing...");
-                    String entityId = curCharacterGroupId;
-
-                    // Add new character if not a pronoun.
-                    if(!curCharacterNER.equals("O")){
-                        // log("Found character (curCharacterPos == NNP)");
-
-                        // Get entity id.
-                        if(characterIdLookup.containsKey(curCharacterGroupId)){
-                            HashMap<String,String> tmp = 
-                                characterIdLookup.get(curCharacterGroupId);
-
-                            if(!tmp.containsKey(curCharacterText)){
-                                tmp.put(curCharacterText, 
-                                    curCharacterGroupId +"-"+ tmp.size());
-                            }
-                        } else {
-                            characterIdLookup.put(curCharacterGroupId,
-                                new HashMap<String, String>());
-                            characterIdLookup.get(curCharacterGroupId).
-                                put(curCharacterText, curCharacterGroupId);
-
-                            // Make a new group entry.
-                            annotation.addGroup(new Group(
-                                curCharacterGroupId, curCharacterText));
+        BookNLPTokensFileReader reader = new BookNLPTokensFileReader(
+            tokensFile, TOKEN_ID_COLUMN, ORIGINAL_WORD_COLUMN, NER_COLUMN, 
+            CHARACTER_ID_COLUMN);
+        try {
+            // Skip the header.
+            reader.next();
+
+            // Go through each line of the file.
+            while(reader.next()){
+                String original = reader.getString(ORIGINAL_WORD_COLUMN);
+                builder.addToken(reader.getInt(TOKEN_ID_COLUMN), original, 
+                    reader.getString(NER_COLUMN), 
+                    reader.getInt(CHARACTER_ID_COLUMN));
+                if(tokensJSON != null)
+                    tokensJSON.string(original);
+            }
+        } finally {
+            reader.close();
+            closeTokensJSON(tokensJSON);
+        }
+        builder.finish();
 
-                        }
+        startAnnotationFile(builder.getAnnotation(), outputDirectory);
+        return builder.getAnnotation();
+    }
 
-                        entityId = characterIdLookup.
-                            get(curCharacterGroupId).get(curCharacterText);
-
-                        // if entities[curCharacterGroupId] is present:
-
-                        if(!internalToExternalCharacterId.containsKey(entityId))
-                            internalToExternalCharacterId.put(entityId, 
-                                Long.toString(++lastEntityId));
-                        String externalEntityId = 
-                            internalToExternalCharacterId.get(entityId);
-                        if(!annotation.entityExists(externalEntityId))
-                            annotation.addEntity(new Entity(
-                                externalEntityId, curCharacterText, 
-                                curCharacterGroupId
-                            ));
-                        
+    /**
+     * Creates the same annotation as `processTokensFile`, but directly from
+     * the tokens of an annotated book rather than from the tokens file, and
+     * writes the same files (in the background; see `finishWrites`).
+     * 
+     * @param book The book, after character and coreference annotation.
+     * @param outputDirectory The directory where output files will be written.
+     * @return The annotation.
+     */
+    public CompactAnnotation processBook(final Book book,
+            File outputDirectory) {
+        BookNLPAnnotationBuilder builder = new BookNLPAnnotationBuilder();
+        for(Token token : book.tokens)
+            builder.addToken(token.tokenId, token.original, token.ner,
+                token.characterId);
+        builder.finish();
+
+        if(plan.includes(BookNLPStagePlan.TOKENS_JSON))
+            pendingWrites.add(EntiTiesArtifactWriter.submitText(
+                new File(outputDirectory, TOKENS_JSON_FILE_NAME),
+                new EntiTiesArtifactWriter.TextContent() {
+                    public void writeTo(Writer out) throws IOException {
+                        EntiTiesJSONWriter tokensJSON = 
+                            new EntiTiesJSONWriter(out);
+                        tokensJSON.beginArray();
+                        for(Token token : book.tokens)
+                            tokensJSON.string(token.original);
+                        tokensJSON.endArray();
                     }
+                }));
 
-                    // Add location.
-                    String locationKey = curCharacterStartOffset +"_"+
-                        curCharacterEndOffset;
-                    annotation.addLocation(new Location(locationKey, 
-                        internalToExternalCharacterId.get(entityId), 
-                        curCharacterStartOffset, curCharacterEndOffset));
-                }
-
-                // See if we're entering an entity (cols 16 > -1)
-                // if(characterId > -1 && (supersenseStart == 'B' || supersenseStart == 'I') ){
-                if(characterId > -1 && characterId != prevCharacterId ){
-                    // log("Found beginning of new character...");
-                    curCharacterText = cols[ORIGINAL_WORD_COLUMN];
-                    curCharacterGroupId = cols[CHARACTER_ID_COLUMN];
-                    curCharacterStartOffset = 
-                        Integer.parseInt(cols[TOKEN_ID_COLUMN]);
-                    curCharacterEndOffset = 
-                        Integer.parseInt(cols[TOKEN_ID_COLUMN]);
-                    curCharacterPOS = cols[POS_COLUMN];
-                    curCharacterNER = cols[NER_COLUMN];
-
-                // Otherwise, mark that we're no longer processing an
-                // entity.
-                } else {
-                    curCharacterText = null;
-                }
-            }
-
-            // Add the text to tokens.
-            tokens.add(cols[ORIGINAL_WORD_COLUMN]);
+        startAnnotationFile(builder.getAnnotation(), outputDirectory);
+        return builder.getAnnotation();
+    }
 
-            // Next line.
-            line = tokensFileBuffer.readLine();
+    /**
+     * Starts writing tokens.json, if it's in the stage plan. Tokens are
+     * written to a temporary file one at a time as they're read; the file
+     * is renamed to tokens.json by `closeTokensJSON`.
+     * 
+     * @param outputDirectory The directory where output files will be written.
+     * @return A writer positioned inside the token array, or null if 
+     *         tokens.json isn't wanted.
+     * @throws IOException
+     */
+    private EntiTiesJSONWriter openTokensJSON(File outputDirectory)
+    throws IOException {
+        if(!plan.includes(BookNLPStagePlan.TOKENS_JSON))
+            return null;
+        tokensJSONFile = new File(outputDirectory, TOKENS_JSON_FILE_NAME);
+        tokensJSONTempFile = EntiTiesArtifactWriter.getTempFile(
+            tokensJSONFile);
+        EntiTiesJSONWriter tokensJSON = new EntiTiesJSONWriter(
+            EntiTiesArtifactWriter.openWriter(tokensJSONTempFile));
+        tokensJSON.beginArray();
+        return tokensJSON;
+    }
 
-            prevCharacterId = characterId;
+    /**
+     * Finishes and closes tokens.json, and moves it into place.
+     * 
+     * @param tokensJSON The writer returned by `openTokensJSON` (may be null).
+     * @throws IOException
+     */
+    private void closeTokensJSON(EntiTiesJSONWriter tokensJSON)
+    throws IOException {
+        if(tokensJSON == null)
+            return;
+        try {
+            tokensJSON.endArray();
+            tokensJSON.close();
+            EntiTiesArtifactWriter.commit(tokensJSONTempFile, tokensJSONFile);
+        } finally {
+            tokensJSONTempFile.delete();
         }
-        tokensFileBuffer.close();
-
-        // Write out character info.
-        jsonAnnotation = annotation.toString();
-        PrintWriter entityJSONFile = new PrintWriter(
-            new File(outputDirectory, ANNOTATION_JSON_FILE_NAME));
-        entityJSONFile.print(jsonAnnotation);
-        entityJSONFile.close();
-
-        // FileWriter entityJSONFile = new FileWriter(
-        //     new File(outputDirectory, ANNOTATION_JSON_FILE_NAME));
-        // entityJSONFile.
-        // entityInfo.writeJSONString(entityJSONFile);
-        // entityJSONFile.close();
-
-        // Write out token info.
-        FileWriter tokensJSONFile = new FileWriter(
-            new File(outputDirectory, TOKENS_JSON_FILE_NAME));
-        tokens.writeJSONString(tokensJSONFile);
-        tokensJSONFile.close();
-
-        return jsonAnnotation;
+    }
+
+    /**
+     * Starts writing annotation.json in the background. The annotation must
+     * not change until `finishWrites` returns.
+     * 
+     * @param annotation The annotation to write.
+     * @param outputDirectory The directory where output files will be written.
+     */
+    private void startAnnotationFile(final CompactAnnotation annotation,
+            File outputDirectory) {
+        pendingWrites.add(EntiTiesArtifactWriter.submitText(
+            new File(outputDirectory, ANNOTATION_JSON_FILE_NAME),
+            new EntiTiesArtifactWriter.TextContent() {
+                public void writeTo(Writer out) throws IOException {
+                    annotation.writeJSON(out);
+                }
+            }));
     }
 
 
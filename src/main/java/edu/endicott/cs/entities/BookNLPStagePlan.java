@@ -0,0 +1,108 @@
+// Files:   BookNLPStagePlan.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The optional analyses and output files a booknlp request asks for. Tokens,
+ * characters, coreference, and the annotation (annotation.json and the
+ * database entry) are always produced; everything else is only produced when
+ * listed. A plan is given as a comma-separated list of these items:
+ *
+ *  - supersense  -- supersense tags (the last column of tokens.tsv)
+ *  - quotations  -- quotation detection and speaker attribution
+ *  - features    -- character feature paths (agent, patient, etc.)
+ *  - ids.json    -- BookNLP's character file (requires quotations and
+ *                   features, which are added automatically)
+ *  - ids.html    -- marked up text (requires quotations, which is added
+ *                   automatically)
+ *  - tokens.json -- the annotation's token list
+ *
+ * "all" (and an empty plan) stands for all of the above; that's the plan
+ * used when a request doesn't give one. "none" stands for none of them.
+ */
+public class BookNLPStagePlan {
+    public static final String SUPERSENSE = "supersense";
+    public static final String QUOTATIONS = "quotations";
+    public static final String FEATURES = "features";
+    public static final String IDS_JSON = "ids.json";
+    public static final String IDS_HTML = "ids.html";
+    public static final String TOKENS_JSON = "tokens.json";
+    public static final String ALL = "all";
+    public static final String NONE = "none";
+
+    public static final List<String> ITEMS = Arrays.asList(
+        SUPERSENSE, QUOTATIONS, FEATURES, IDS_JSON, IDS_HTML, TOKENS_JSON);
+
+    private TreeSet<String> items;
+
+    private BookNLPStagePlan(TreeSet<String> items) {
+        this.items = items;
+    }
+
+    /**
+     * @return The plan that produces everything.
+     */
+    public static BookNLPStagePlan all() {
+        return new BookNLPStagePlan(new TreeSet<String>(ITEMS));
+    }
+
+    /**
+     * Parses a plan, adding any items that the listed items require.
+     *
+     * @param planString A comma-separated list of items (see above).
+     * @return The plan.
+     * @throws IllegalArgumentException If an item isn't recognized.
+     */
+    public static BookNLPStagePlan parse(String planString) {
+        if(planString == null || planString.trim().equals("") ||
+                planString.trim().equals(ALL))
+            return all();
+
+        TreeSet<String> items = new TreeSet<String>();
+        if(planString.trim().equals(NONE))
+            return new BookNLPStagePlan(items);
+
+        for(String item : planString.split(",")){
+            item = item.trim();
+            if(item.equals(""))
+                continue;
+            if(!ITEMS.contains(item))
+                throw new IllegalArgumentException("Unrecognized booknlp "+
+                    "plan item '"+ item +"'. Valid items: "+ ALL +", "+
+                    NONE +", "+ String.join(", ", ITEMS) +".");
+            items.add(item);
+        }
+
+        if(items.contains(IDS_JSON)){
+            items.add(QUOTATIONS);
+            items.add(FEATURES);
+        }
+        if(items.contains(IDS_HTML))
+            items.add(QUOTATIONS);
+
+        return new BookNLPStagePlan(items);
+    }
+
+    /**
+     * @param item One of the items above.
+     * @return Whether the plan includes the item.
+     */
+    public boolean includes(String item) {
+        return items.contains(item);
+    }
+
+    /**
+     * @return The plan in the same form `parse` takes, with items in a fixed
+     *         order (so equal plans have equal strings).
+     */
+    public String toString() {
+        if(items.isEmpty())
+            return NONE;
+        return String.join(",", items);
+    }
+}
@@ -0,0 +1,190 @@
+// Files:   BookNLPTokensFileReader.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a BookNLP tokens file (tab-separated, one token per line) one line at
+ * a time, straight out of a char buffer. Only the columns asked for are
+ * located on each line, and nothing is allocated for a column unless its
+ * value is asked for as a String; integer columns are parsed in place.
+ *
+ * Usage:
+ *
+ *     reader = new BookNLPTokensFileReader(file, TOKEN_ID, NER);
+ *     reader.next(); // Skip the header.
+ *     while(reader.next())
+ *         ... reader.getInt(TOKEN_ID) ... reader.getString(NER) ...
+ *     reader.close();
+ */
+public class BookNLPTokensFileReader implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private Reader in;
+    private char[] buffer;
+    private int position, limit;
+    private boolean endOfInput;
+    private int lineNumber;
+
+    // For each column number, its index in starts/ends, or -1.
+    private int[] columnIndex;
+    private int lastColumn;
+    private int[] starts, ends;
+
+    /**
+     * @param tokensFile The file to read (UTF-8).
+     * @param columns The (0-based) columns that will be read.
+     * @throws IOException
+     */
+    public BookNLPTokensFileReader(File tokensFile, int... columns)
+            throws IOException {
+        in = new InputStreamReader(new FileInputStream(tokensFile),
+            StandardCharsets.UTF_8);
+        buffer = new char[INITIAL_BUFFER_SIZE];
+        position = 0;
+        limit = 0;
+        endOfInput = false;
+        lineNumber = 0;
+
+        lastColumn = -1;
+        for(int column : columns)
+            lastColumn = Math.max(lastColumn, column);
+        columnIndex = new int[lastColumn+1];
+        Arrays.fill(columnIndex, -1);
+        for(int i = 0; i < columns.length; i++)
+            columnIndex[columns[i]] = i;
+        starts = new int[columns.length];
+        ends = new int[columns.length];
+    }
+
+    /**
+     * Moves to the next line and locates its columns.
+     *
+     * @return False if there are no more lines.
+     * @throws IOException If the line has fewer columns than were asked for.
+     */
+    public boolean next() throws IOException {
+        // Find the end of the line, reading more as needed.
+        int scanned = position;
+        int lineEnd = -1;
+        while(lineEnd == -1){
+            for(int i = scanned; i < limit; i++){
+                if(buffer[i] == '\n'){
+                    lineEnd = i;
+                    break;
+                }
+            }
+            if(lineEnd != -1)
+                break;
+            if(endOfInput){
+                if(position == limit)
+                    return false;
+                lineEnd = limit;
+                break;
+            }
+            scanned = limit - position;
+            fill();
+        }
+
+        int lineStart = position;
+        position = lineEnd < limit ? lineEnd + 1 : limit;
+        if(lineEnd > lineStart && buffer[lineEnd-1] == '\r')
+            lineEnd--;
+        lineNumber++;
+
+        // Locate the wanted columns.
+        int column = 0, columnStart = lineStart;
+        for(int i = lineStart; i <= lineEnd && column <= lastColumn; i++){
+            if(i == lineEnd || buffer[i] == '\t'){
+                int index = columnIndex[column];
+                if(index != -1){
+                    starts[index] = columnStart;
+                    ends[index] = i;
+                }
+                column++;
+                columnStart = i + 1;
+            }
+        }
+        if(column <= lastColumn)
+            throw new IOException("Line "+ lineNumber +" has "+ column +
+                " columns; expected at least "+ (lastColumn+1) +".");
+
+        return true;
+    }
+
+    /**
+     * Moves any unread characters to the front of the buffer (growing it if
+     * it's full) and reads more after them.
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if(remaining == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        else
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if(read == -1)
+            endOfInput = true;
+        else
+            limit += read;
+    }
+
+    /**
+     * @param column A column passed to the constructor.
+     * @return The column's value on the current line.
+     */
+    public String getString(int column) {
+        int index = columnIndex[column];
+        return new String(buffer, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * @param column A column passed to the constructor.
+     * @return The column's value on the current line, as an integer.
+     * @throws NumberFormatException If the value isn't an integer.
+     */
+    public int getInt(int column) {
+        int index = columnIndex[column];
+        int i = starts[index], end = ends[index];
+        boolean negative = i < end && buffer[i] == '-';
+        if(negative)
+            i++;
+        if(i == end)
+            throw new NumberFormatException("Line "+ lineNumber +
+                ": empty value in column "+ column);
+
+        int value = 0;
+        for(; i < end; i++){
+            char c = buffer[i];
+            if(c < '0' || c > '9')
+                throw new NumberFormatException("Line "+ lineNumber +
+                    ": not an integer in column "+ column +": "+
+                    getString(column));
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,193 @@
+// Files:   EntiTiesArtifactWriter.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes output files (artifacts such as tokens.tsv, ids.html, and
+ * annotation.json) atomically and, optionally, in the background. Each file
+ * is written to a temporary file in the same directory, which is then renamed
+ * over the target, so readers see either the old file or the complete new
+ * one, never a partly written one. Background writes run on a shared pool of
+ * daemon threads, so a processor can write several artifacts at once while it
+ * carries on (e.g., posting the annotation to the database).
+ */
+public class EntiTiesArtifactWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger tempFileCounter = new AtomicInteger();
+
+    /**
+     * Produces an artifact's contents as text.
+     */
+    public static interface TextContent {
+        /**
+         * @param out Where to write the contents; don't close it.
+         */
+        public void writeTo(Writer out) throws Exception;
+    }
+
+    /**
+     * Produces an artifact's contents by writing a file, for code (like
+     * BookNLP's PrintUtil) that only writes to files by name.
+     */
+    public static interface FileContent {
+        /**
+         * @param file The file to write the contents to.
+         */
+        public void writeTo(File file) throws Exception;
+    }
+
+    private static final ExecutorService WRITERS =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            private AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                    "artifact-writer-"+ threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /**
+     * Runs a task on the writer threads.
+     *
+     * @param task The task.
+     * @return The task's future.
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        return WRITERS.submit(task);
+    }
+
+    /**
+     * Writes an artifact atomically in the background.
+     *
+     * @param target The file to write.
+     * @param content Produces the file's contents.
+     * @return A future that completes once the file is in place.
+     */
+    public static Future<File> submitText(final File target,
+            final TextContent content) {
+        return submit(new Callable<File>() {
+            public File call() throws Exception {
+                writeText(target, content);
+                return target;
+            }
+        });
+    }
+
+    /**
+     * Writes an artifact atomically in the background.
+     *
+     * @param target The file to write.
+     * @param content Produces the file's contents.
+     * @return A future that completes once the file is in place.
+     */
+    public static Future<File> submitFile(final File target,
+            final FileContent content) {
+        return submit(new Callable<File>() {
+            public File call() throws Exception {
+                writeFile(target, content);
+                return target;
+            }
+        });
+    }
+
+    /**
+     * Writes an artifact atomically on the calling thread.
+     *
+     * @param target The file to write.
+     * @param content Produces the file's contents.
+     * @throws Exception If the contents couldn't be produced or written; the
+     *                   target is left as it was.
+     */
+    public static void writeText(File target, final TextContent content)
+            throws Exception {
+        writeFile(target, new FileContent() {
+            public void writeTo(File file) throws Exception {
+                Writer out = openWriter(file);
+                try {
+                    content.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes an artifact atomically on the calling thread.
+     *
+     * @param target The file to write.
+     * @param content Produces the file's contents.
+     * @throws Exception If the contents couldn't be produced or written; the
+     *                   target is left as it was.
+     */
+    public static void writeFile(File target, FileContent content)
+            throws Exception {
+        File tempFile = getTempFile(target);
+        try {
+            content.writeTo(tempFile);
+            commit(tempFile, target);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @param target The file that will eventually be written.
+     * @return A temporary file, unique to this process and call, in the same
+     *         directory as the target (so renaming it over the target is
+     *         atomic).
+     */
+    public static File getTempFile(File target) {
+        return new File(target.getPath() +"."+
+            tempFileCounter.getAndIncrement() +".tmp");
+    }
+
+    /**
+     * Opens a buffered, UTF-8 writer on a file's channel, truncating the file
+     * if it exists.
+     *
+     * @param file The file to write.
+     * @return The writer.
+     * @throws IOException
+     */
+    public static Writer openWriter(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedWriter(Channels.newWriter(channel,
+            StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    /**
+     * Renames a finished temporary file over its target.
+     *
+     * @param tempFile The temporary file (see `getTempFile`).
+     * @param target The file to replace.
+     * @throws IOException
+     */
+    public static void commit(File tempFile, File target) throws IOException {
+        Files.move(tempFile.toPath(), target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+}
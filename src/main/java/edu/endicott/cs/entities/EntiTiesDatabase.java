@@ -1,5 +1,11 @@
 package edu.endicott.cs.entities;
 
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Date;
 
@@ -13,11 +19,21 @@ import java.sql.ResultSet;
 import java.sql.Timestamp;
 
 import edu.endicott.cs.entities.annotations.Annotation;
+import edu.endicott.cs.entities.annotations.CompactAnnotation;
 
 public class EntiTiesDatabase {
     public static enum IdStatus {SUCCESS, ID_NOT_PRESENT, ID_ALREADY_PROCESSED,
         ERROR_QUERYING_DB};
 
+    /**
+     * A row of the jobs table: a request that was accepted from a client and
+     * is waiting to be (or being) run by an EntiTiesJobWorker.
+     */
+    public static class Job {
+        public int id, annotationId, attempts;
+        public String processor, request;
+    }
+
     HashMap<String, String> settings;
     private EntiTiesLogger.RequestLogger logger;
     private Connection dbh;
@@ -60,6 +76,17 @@ public class EntiTiesDatabase {
         }
     }
 
+    /**
+     * @return Whether a connection to the database is open.
+     */
+    public boolean isConnected() {
+        try {
+            return dbh != null && !dbh.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
     /**
      * Checks that the annotation entry with the given id is present and
      * it's `processed` column is 0 in the annotation table of the database.
@@ -182,6 +209,71 @@ public class EntiTiesDatabase {
     public boolean postAnnotation(int annotationId, String annotation) 
         throws SQLException {
 
+        return postAnnotation(annotationId, new StringReader(annotation), 
+            annotation.length());
+    }
+
+    /**
+     * Adds the annotation to the annotations table of the database. The
+     * annotation is written into a character buffer and handed to the driver
+     * as a character stream, rather than being converted to a String first.
+     * 
+     * @param annotationId The id of the annotation.
+     * @param annotation The annotation.
+     * @return True if the post was successful.
+     * 
+     * @throws SQLException
+     */
+    public boolean postAnnotation(int annotationId, Annotation annotation) 
+        throws SQLException {
+
+        AnnotationBuffer buffer = new AnnotationBuffer();
+        try {
+            annotation.writeJSON(buffer);
+        } catch (IOException e) {
+            // A CharArrayWriter doesn't throw.
+            throw new SQLException(e);
+        }
+        return postAnnotation(annotationId, buffer.toReader(), buffer.size());
+    }
+
+    /**
+     * Adds a compact annotation to the annotations table of the database, in
+     * the same way as an Annotation.
+     * 
+     * @param annotationId The id of the annotation.
+     * @param annotation The annotation.
+     * @return True if the post was successful.
+     * 
+     * @throws SQLException
+     */
+    public boolean postAnnotation(int annotationId, 
+        CompactAnnotation annotation) throws SQLException {
+
+        AnnotationBuffer buffer = new AnnotationBuffer();
+        try {
+            annotation.writeJSON(buffer);
+        } catch (IOException e) {
+            // A CharArrayWriter doesn't throw.
+            throw new SQLException(e);
+        }
+        return postAnnotation(annotationId, buffer.toReader(), buffer.size());
+    }
+
+    /**
+     * Adds the annotation (in JSON format) to the annotations table of the
+     * database.
+     * 
+     * @param annotationId The id of the annotation.
+     * @param annotation The annotation (JSON).
+     * @param length The number of characters in the annotation.
+     * @return True if the post was successful.
+     * 
+     * @throws SQLException
+     */
+    private boolean postAnnotation(int annotationId, Reader annotation, 
+        int length) throws SQLException {
+
         Timestamp curTime = new Timestamp(new Date().getTime());
         PreparedStatement statement = dbh.prepareStatement(
             "update annotations set "+
@@ -195,12 +287,25 @@ public class EntiTiesDatabase {
         //     statement.setString(1, curTime.toString());
         // else 
             statement.setTimestamp(1, curTime);
-        statement.setString(2, annotation);
+        statement.setCharacterStream(2, annotation, length);
         statement.setInt(3, annotationId);
 
         return statement.executeUpdate() == 1;
     }
 
+    /**
+     * A CharArrayWriter whose contents can be read back without being copied.
+     */
+    private static class AnnotationBuffer extends CharArrayWriter {
+        AnnotationBuffer() {
+            super(64 * 1024);
+        }
+
+        Reader toReader() {
+            return new CharArrayReader(buf, 0, count);
+        }
+    }
+
     /**
      * Reads an annotation from the database and wraps it as an Annotation.
      * 
@@ -221,11 +326,23 @@ public class EntiTiesDatabase {
                 return null;
             }
 
-            return new Annotation(result.getString(1));
+            Reader annotation = result.getCharacterStream(1);
+            if(annotation == null){
+                logger.log("Annotation "+ annotationId +" is empty.");
+                return null;
+            }
+            try {
+                return new Annotation(annotation);
+            } finally {
+                annotation.close();
+            }
 
         } catch (SQLException e) {
             logger.log(e.toString());
             return null;
+        } catch (IOException e) {
+            logger.log(e.toString());
+            return null;
         }
     }
 
@@ -251,6 +368,233 @@ public class EntiTiesDatabase {
     }
 
 
+    /**
+     * Adds a job to the jobs table in the `queued` state. Assumes there's a
+     * table named `jobs` with the following fields:
+     * 
+     *  - id
+     *  - processor (the processor that accepted the request, e.g., booknlp)
+     *  - annotation_id
+     *  - request (the request to run, in the format read by 
+     *             EntiTiesDispatcher)
+     *  - status (queued, running, done, or failed)
+     *  - attempts (how many times the job has been claimed)
+     *  - worker_id (the worker that last claimed the job)
+     *  - error
+     *  - created_at, claimed_at, heartbeat_at, finished_at
+     * 
+     * @param processor The name of the processor that accepted the request.
+     * @param annotationId The id of the annotation the job will produce.
+     * @param request The request to run.
+     * @return True if the job was added.
+     * 
+     * @throws SQLException
+     */
+    public boolean enqueueJob(String processor, int annotationId, 
+            String request) throws SQLException {
+
+        PreparedStatement statement = dbh.prepareStatement(
+            "insert into jobs(processor, annotation_id, request, status, "+
+                "attempts, created_at) values (?, ?, ?, 'queued', 0, ?)");
+        statement.setString(1, processor);
+        statement.setInt(2, annotationId);
+        statement.setString(3, request);
+        statement.setTimestamp(4, new Timestamp(new Date().getTime()));
+        return statement.executeUpdate() == 1;
+    }
+
+    /**
+     * Claims the oldest runnable job for the given worker. A job is runnable
+     * if it is queued, or if it is running but its worker hasn't sent a
+     * heartbeat since `staleBefore` (i.e., the worker has died), as long as it
+     * has been claimed fewer than `maxAttempts` times.
+     * 
+     * On PostgreSQL the claim is a single `for update skip locked` statement,
+     * so concurrent workers never wait on each other. On sqlite, the candidate
+     * is selected and then claimed with an update that re-checks that it is
+     * still runnable; whichever worker's update lands first wins.
+     * 
+     * @param workerId A name unique to the claiming worker.
+     * @param staleBefore Running jobs with older heartbeats are reclaimed.
+     * @param maxAttempts Jobs claimed this many times are left alone.
+     * @return The claimed job, or null if there are no runnable jobs.
+     * 
+     * @throws SQLException
+     */
+    public Job claimJob(String workerId, Timestamp staleBefore, 
+            int maxAttempts) throws SQLException {
+
+        Timestamp curTime = new Timestamp(new Date().getTime());
+        String runnable = 
+            "(status = 'queued' or "+
+                "(status = 'running' and heartbeat_at < ?)) and attempts < ?";
+
+        if(isPostgres){
+            PreparedStatement statement = dbh.prepareStatement(
+                "update jobs set status = 'running', worker_id = ?, "+
+                    "attempts = attempts + 1, claimed_at = ?, "+
+                    "heartbeat_at = ? "+
+                "where id = (select id from jobs where "+ runnable +" "+
+                    "order by id limit 1 for update skip locked) "+
+                "returning id, processor, annotation_id, request, attempts");
+            statement.setString(1, workerId);
+            statement.setTimestamp(2, curTime);
+            statement.setTimestamp(3, curTime);
+            statement.setTimestamp(4, staleBefore);
+            statement.setInt(5, maxAttempts);
+
+            ResultSet result = statement.executeQuery();
+            return result.next() ? readJob(result) : null;
+        }
+
+        boolean autoCommit = dbh.getAutoCommit();
+        dbh.setAutoCommit(false);
+        try {
+            PreparedStatement select = dbh.prepareStatement(
+                "select id, processor, annotation_id, request, attempts "+
+                "from jobs where "+ runnable +" order by id limit 1");
+            select.setTimestamp(1, staleBefore);
+            select.setInt(2, maxAttempts);
+            ResultSet result = select.executeQuery();
+            if(!result.next()){
+                dbh.commit();
+                return null;
+            }
+            Job job = readJob(result);
+            job.attempts++;
+            result.close();
+
+            PreparedStatement update = dbh.prepareStatement(
+                "update jobs set status = 'running', worker_id = ?, "+
+                    "attempts = attempts + 1, claimed_at = ?, "+
+                    "heartbeat_at = ? "+
+                "where id = ? and "+ runnable);
+            update.setString(1, workerId);
+            update.setTimestamp(2, curTime);
+            update.setTimestamp(3, curTime);
+            update.setInt(4, job.id);
+            update.setTimestamp(5, staleBefore);
+            update.setInt(6, maxAttempts);
+            boolean claimed = update.executeUpdate() == 1;
+            dbh.commit();
+            return claimed ? job : null;
+
+        } catch (SQLException e) {
+            dbh.rollback();
+            throw e;
+        } finally {
+            dbh.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Records that the given worker is still running the job.
+     * 
+     * @param jobId The id of the job.
+     * @param workerId The worker that claimed the job.
+     * @return False if the job is no longer claimed by this worker (e.g., it
+     *         was reclaimed after the heartbeat went stale).
+     * 
+     * @throws SQLException
+     */
+    public boolean heartbeatJob(int jobId, String workerId) 
+            throws SQLException {
+
+        PreparedStatement statement = dbh.prepareStatement(
+            "update jobs set heartbeat_at = ? "+
+            "where id = ? and worker_id = ? and status = 'running'");
+        statement.setTimestamp(1, new Timestamp(new Date().getTime()));
+        statement.setInt(2, jobId);
+        statement.setString(3, workerId);
+        return statement.executeUpdate() == 1;
+    }
+
+    /**
+     * Marks a job as finished, either `done` or `failed`, if the given worker
+     * still has it.
+     * 
+     * @param jobId The id of the job.
+     * @param workerId The worker that claimed the job.
+     * @param succeeded Whether the job completed successfully.
+     * @param error A description of the failure, or null.
+     * @return False if the job is no longer claimed by this worker (e.g., it
+     *         was reclaimed after the heartbeat went stale), in which case
+     *         it's left alone.
+     * 
+     * @throws SQLException
+     */
+    public boolean finishJob(int jobId, String workerId, boolean succeeded, 
+            String error) throws SQLException {
+
+        PreparedStatement statement = dbh.prepareStatement(
+            "update jobs set status = ?, error = ?, finished_at = ? "+
+            "where id = ? and worker_id = ? and status = 'running'");
+        statement.setString(1, succeeded ? "done" : "failed");
+        statement.setString(2, error);
+        statement.setTimestamp(3, new Timestamp(new Date().getTime()));
+        statement.setInt(4, jobId);
+        statement.setString(5, workerId);
+        return statement.executeUpdate() == 1;
+    }
+
+    /**
+     * Marks abandoned jobs that have used up their attempts as failed, along
+     * with their annotations, so they don't sit in the `running` state 
+     * forever.
+     * 
+     * @param staleBefore Running jobs with older heartbeats are abandoned.
+     * @param maxAttempts The number of claims a job is allowed.
+     * @return The number of jobs marked as failed.
+     * 
+     * @throws SQLException
+     */
+    public int failExhaustedJobs(Timestamp staleBefore, int maxAttempts) 
+            throws SQLException {
+
+        PreparedStatement select = dbh.prepareStatement(
+            "select id, annotation_id, worker_id from jobs "+
+                "where status = 'running' "+
+                "and heartbeat_at < ? and attempts >= ?");
+        select.setTimestamp(1, staleBefore);
+        select.setInt(2, maxAttempts);
+        ResultSet result = select.executeQuery();
+        ArrayList<Integer> jobIds = new ArrayList<Integer>();
+        ArrayList<Integer> annotationIds = new ArrayList<Integer>();
+        ArrayList<String> workerIds = new ArrayList<String>();
+        while(result.next()){
+            jobIds.add(result.getInt(1));
+            annotationIds.add(result.getInt(2));
+            workerIds.add(result.getString(3));
+        }
+        result.close();
+
+        int failed = 0;
+        for(int i = 0; i < jobIds.size(); i++){
+            logger.log("Job "+ jobIds.get(i) +" was abandoned after "+ 
+                maxAttempts +" attempts; marking it as failed.");
+            // Only if the last worker to claim it still has it.
+            if(finishJob(jobIds.get(i), workerIds.get(i), false, 
+                    "abandoned after "+ maxAttempts +" attempts")){
+                failed++;
+                setAnnotationErrorFlag(annotationIds.get(i));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Reads a Job from the current row of a jobs query.
+     */
+    private Job readJob(ResultSet result) throws SQLException {
+        Job job = new Job();
+        job.id = result.getInt("id");
+        job.processor = result.getString("processor");
+        job.annotationId = result.getInt("annotation_id");
+        job.request = result.getString("request");
+        job.attempts = result.getInt("attempts");
+        return job;
+    }
+
     /**
      * Closes the database connection as long as one exists.
      * 
@@ -4,16 +4,16 @@
 
 package edu.endicott.cs.entities;
 
-import java.net.ServerSocket;
-import java.net.Socket;
-
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.PrintWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.sql.SQLException;
 
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -31,31 +31,60 @@ import org.json.simple.parser.ParseException;
  * 
  * @author Henry Feild
  */
-public class EntiTiesDispatcher extends Thread {
+public class EntiTiesDispatcher implements Runnable {
     private static final int DEFAULT_PORT = 3636;
+    private static final String BUSY_RESPONSE = "busy";
 
     private static EntiTiesLogger logger;
+    private static EntiTiesWorkerPool workerPool;
 
     private EntiTiesSocket socket;
-    private int clientNumber;
+    private String clientLabel;
     private HashMap<String, String> dbSettings;
+    private boolean useJobQueue, runningJob, deferredToJob;
 
 
     /**
      * Receives a new request.
      * 
-     * @param socket The socket number.
+     * @param socket The client's socket, with its request already read.
      * @param clientNumber The id of the client making the request.
      */
-    public EntiTiesDispatcher(Socket rawSocket, int clientNumber,
+    public EntiTiesDispatcher(EntiTiesSocket socket, int clientNumber,
         HashMap<String, String> dbSettings) {
 
-        this.socket = new EntiTiesSocket(rawSocket);
-        this.clientNumber = clientNumber;
-        this.dbSettings = dbSettings;
+        this(socket, "client "+ clientNumber, dbSettings);
         logger.log("New connection");
     }
 
+    private EntiTiesDispatcher(EntiTiesSocket socket, String clientLabel,
+        HashMap<String, String> dbSettings) {
+
+        this.socket = socket;
+        this.clientLabel = clientLabel;
+        this.dbSettings = dbSettings;
+        useJobQueue = "true".equals(dbSettings.get("job_queue"));
+        runningJob = false;
+        deferredToJob = false;
+    }
+
+    /**
+     * Runs a request that was queued in the jobs table. The client that made
+     * the request has already been answered, so output is discarded.
+     * 
+     * @param job The job to run.
+     * @param dbSettings The database settings.
+     * @return Whether every stage of the job completed successfully.
+     */
+    public static boolean runJob(EntiTiesDatabase.Job job, 
+            HashMap<String, String> dbSettings) throws Exception {
+        
+        EntiTiesDispatcher dispatcher = new EntiTiesDispatcher(
+            EntiTiesSocket.detached(), "job "+ job.id, dbSettings);
+        dispatcher.runningJob = true;
+        return dispatcher.processRequest(job.request);
+    }
+
     /**
      * Handles incoming requests. Each request should be in the format:
      * 
@@ -67,6 +96,7 @@ public class EntiTiesDispatcher extends Thread {
      * Processors:
      *      - booknlp (see BookNLPProcessor for arguments)
      *      - token (see TokenProcessor for arguments)
+     *      - tokens (see TokenRangeProcessor for arguments)
      *      - tie-window (see WindowTieProcessor for arguments)
      * 
      * Requests are sent to the specified processor's `processRequest` method
@@ -76,73 +106,23 @@ public class EntiTiesDispatcher extends Thread {
      * listed, but only if the previous processor completed successfully. This
      * is helpful if you would like to chain processes together. For example,
      * you could run booknlp followed by tie-window.
+     * 
+     * If the job queue is enabled (`job_queue` in the settings file), a 
+     * booknlp stage only checks its arguments; it and any stages after it
+     * are then saved to the jobs table and the client is answered right away.
+     * An EntiTiesJobWorker picks the job up from there.
      */
     public void run() {
-        PrintWriter out = null;
         try {
-            EntiTiesLogger.RequestLogger requestLogger;
-            EntiTiesDatabase database;
-            socket.initialize();
-
             // Reads the incoming request.
-            boolean lastStageSucceeded = false;
             String request = socket.readLine();
 
-            int firstDelimiterIndex, i;
-            String processorName, processorArgs;
-            String requestStages[] = request.split("::::");
-
             logger.log("EntiTiesDispatcher: Message received:\t"+ request);
 
-            for(i = 0; i < requestStages.length; i++){
-                firstDelimiterIndex = requestStages[i].indexOf('\t');
-                processorName = requestStages[i].substring(
-                    0, firstDelimiterIndex);
-                processorArgs = requestStages[i].substring(
-                    firstDelimiterIndex+1);
-
-                logger.log("EntiTiesDispatcher: Processing stage "+ (i+1) +" of "+ 
-                    requestStages.length +"\t"+ processorName +"\t"+ processorArgs);
-
-                requestLogger =  logger.createRequestLogger(
-                    "client "+ clientNumber +"\t"+ processorName +"\t"+ 
-                    "stage "+ (i+1) +" of "+ requestStages.length +"\t");
-                database = new EntiTiesDatabase(dbSettings, requestLogger);
-
-                // BookNLP processing.
-                if(processorName.equals("booknlp")) {
-                    lastStageSucceeded = new BookNLPProcessor().processRequest(
-                        socket, processorArgs, requestLogger, database);
-
-                // Simple tokenization.
-                } else if(processorName.equals("token")) {
-                    lastStageSucceeded = new TokenProcessor().processRequest(
-                        socket, processorArgs, requestLogger, database);
-
-                // Window-base tie extraction.
-                } else if(processorName.equals("tie-window")) {
-                    lastStageSucceeded = new WindowTieProcessor().processRequest(
-                        socket, processorArgs, requestLogger, database);
-
-                } else {
-                    error(socket.out, "EntiTiesDispatcher: Error: "+
-                        "Unrecognized processor '"+ processorName +
-                        "'. Valid processors: booknlp, token.");
-                    lastStageSucceeded = false;
-                }
-
-                if(!lastStageSucceeded)
-                    break;
-            }
-
-            if(!lastStageSucceeded)
-                error(socket.out, 
-                    "EntiTiesDispatcher: "+ i +" of "+ requestStages.length + 
-                    " stages successfully completed.");
-            
+            processRequest(request);
 
         } catch (Exception e) {
-            if(!socket.socket.isOutputShutdown() && socket.out != null)
+            if(!socket.isClosed())
                 socket.println("Exception caught.");
             logger.log("Caught Exception: "+ e);
             e.printStackTrace();
@@ -160,6 +140,175 @@ public class EntiTiesDispatcher extends Thread {
         }
     }
 
+    /**
+     * Runs each stage of a request in turn (see `run` for the format).
+     * 
+     * @param request The request to run.
+     * @return Whether every stage completed successfully (or was queued as a
+     *         job).
+     */
+    public boolean processRequest(String request) throws Exception {
+        boolean lastStageSucceeded = false;
+        String requestStages[] = request.split("::::");
+
+        // The stages share one database connection (opened by the first
+        // stage that needs it) and hand the annotation they're working on to
+        // one another in memory.
+        EntiTiesPipelineContext context = new EntiTiesPipelineContext(
+            dbSettings, logger.createRequestLogger(clientLabel +"\t"));
+        try {
+            lastStageSucceeded = processStages(requestStages, context);
+        } finally {
+            finishPipeline(context);
+        }
+        return lastStageSucceeded;
+    }
+
+    /**
+     * Runs each stage of a request in turn; see `processRequest`.
+     * 
+     * @param requestStages The stages of the request.
+     * @param context The state shared by the stages.
+     * @return True if all stages completed successfully (or the request was
+     *         queued as a job).
+     */
+    private boolean processStages(String[] requestStages, 
+            EntiTiesPipelineContext context) throws Exception {
+        EntiTiesLogger.RequestLogger requestLogger;
+        boolean lastStageSucceeded = false, busy = false, deferrable;
+        int firstDelimiterIndex, i;
+        String processorName, processorArgs;
+
+        for(i = 0; i < requestStages.length; i++){
+            firstDelimiterIndex = requestStages[i].indexOf('\t');
+            processorName = requestStages[i].substring(
+                0, firstDelimiterIndex);
+            processorArgs = requestStages[i].substring(
+                firstDelimiterIndex+1);
+
+            logger.log("EntiTiesDispatcher: Processing stage "+ (i+1) +" of "+ 
+                requestStages.length +"\t"+ processorName +"\t"+ processorArgs);
+
+            requestLogger =  logger.createRequestLogger(
+                clientLabel +"\t"+ processorName +"\t"+ 
+                "stage "+ (i+1) +" of "+ requestStages.length +"\t");
+
+            // BookNLP requests only need to be checked and queued; the
+            // job worker that runs them is limited instead.
+            deferrable = useJobQueue && !runningJob && 
+                processorName.equals("booknlp");
+
+            // Reserve a slot for this processor. If the client is still
+            // waiting on a reply, tell them we're busy rather than making
+            // them wait; otherwise, wait our turn.
+            if(!deferrable && !socket.isClosed()){
+                if(!workerPool.tryAcquire(processorName)){
+                    logger.log("EntiTiesDispatcher: Too many concurrent "+
+                        processorName +" requests; replying busy.");
+                    socket.println(BUSY_RESPONSE);
+                    busy = true;
+                    break;
+                }
+            } else if(!deferrable) {
+                workerPool.acquire(processorName);
+            }
+
+            try {
+                context.setRemainingStages(requestStages.length-1-i);
+                lastStageSucceeded = runStage(processorName, processorArgs,
+                    deferrable ? joinStages(requestStages, i) : null,
+                    requestLogger, context);
+            } catch (RejectedExecutionException e) {
+                // The stage had to be handed to another lane, and that
+                // lane's queue is full.
+                logger.log("EntiTiesDispatcher: No room in the "+
+                    workerPool.getLane(processorName) +" lane for "+
+                    processorName +"; replying busy.");
+                socket.println(BUSY_RESPONSE);
+                busy = true;
+                break;
+            } finally {
+                if(!deferrable)
+                    workerPool.release(processorName);
+            }
+
+            // The rest of the request is now a job.
+            if(deferredToJob)
+                return true;
+
+            if(!lastStageSucceeded)
+                break;
+        }
+
+        if(!lastStageSucceeded && !busy)
+            error(socket.out, 
+                "EntiTiesDispatcher: "+ i +" of "+ requestStages.length + 
+                " stages successfully completed.");
+
+        return lastStageSucceeded;
+    }
+
+    /**
+     * Posts any annotation a stage left unposted (e.g., because a later stage
+     * failed) and closes the request's database connection.
+     * 
+     * @param context The state shared by the stages of the request.
+     */
+    private void finishPipeline(EntiTiesPipelineContext context) {
+        try {
+            if(context.hasPendingAnnotation()){
+                logger.log("EntiTiesDispatcher: Posting annotation "+ 
+                    context.getAnnotationId() +" left by an earlier stage.");
+                if(!context.flush()){
+                    logger.log("EntiTiesDispatcher: Error: unable to post "+
+                        "annotation to database.");
+                    context.getDatabase().setAnnotationErrorFlag(
+                        context.getAnnotationId());
+                }
+            }
+        } catch (SQLException e) {
+            logger.log("EntiTiesDispatcher: Problems connecting to the "+
+                "database: "+ e);
+        } finally {
+            try {
+                context.close();
+            } catch (SQLException e) {
+                logger.log("EntiTiesDispatcher: Couldn't close database "+
+                    "connection.");
+            }
+        }
+    }
+
+    /**
+     * @return The name of the processor whose lane this request should be
+     *         scheduled in (see EntiTiesWorkerPool): the first stage's
+     *         processor, or null if that stage will only be queued as a job.
+     */
+    public String getSchedulingProcessor() {
+        String request = socket.connection.getRequestLine();
+        int firstDelimiterIndex = request.indexOf('\t');
+        String processorName = firstDelimiterIndex < 0 ? request :
+            request.substring(0, firstDelimiterIndex);
+        if(useJobQueue && processorName.equals("booknlp"))
+            return null;
+        return processorName;
+    }
+
+    /**
+     * Joins the given request stages back into a single request, starting at
+     * the given stage.
+     * 
+     * @param requestStages The stages of a request.
+     * @param first The index of the first stage to include.
+     * @return The request, in the format described in `run`.
+     */
+    private static String joinStages(String[] requestStages, int first) {
+        StringBuilder request = new StringBuilder(requestStages[first]);
+        for(int i = first+1; i < requestStages.length; i++)
+            request.append("::::").append(requestStages[i]);
+        return request.toString();
+    }
+
 
 
     /**
@@ -173,6 +322,16 @@ public class EntiTiesDispatcher extends Thread {
      *  - username (only read if authentication is true)
      *  - password (only read if authentication is true)
      *  - text_processing_port
+     *  - worker_threads, worker_queue_size, bulk_threads, bulk_queue_size,
+     *    <processor>_lane, <processor>_max_concurrent, virtual_threads, 
+     *    max_connections (optional; see EntiTiesWorkerPool)
+     *  - job_queue, job_workers, job_stale_seconds (optional; see
+     *    EntiTiesJobWorker)
+     *  - tokenizer_pipelines, tokenizer_chunk_characters (optional; see
+     *    EntiTiesTokenizerPool)
+     *  - token_cache_texts (optional; see TokenStoreCache)
+     *  - booknlp_chunk_threads, booknlp_chunk_characters (optional; see
+     *    BookNLPChunkedAnnotator)
      * 
      * Key-value pairs are read into a HashMap. Everything is treated as a
      * String.
@@ -218,9 +377,97 @@ public class EntiTiesDispatcher extends Thread {
             settings.put("text_processing_port", ""+ 
                 settingsJSON.get("text_processing_port"));
 
+        // Optional worker pool limits (see EntiTiesWorkerPool).
+        for(Object key : settingsJSON.keySet()){
+            String keyString = (String) key;
+            if(keyString.startsWith("worker_") || 
+                    keyString.startsWith("bulk_") ||
+                    keyString.startsWith("job_") ||
+                    keyString.startsWith("tokenizer_") ||
+                    keyString.startsWith("token_cache_") ||
+                    keyString.startsWith("booknlp_chunk_") ||
+                    keyString.endsWith("_lane") ||
+                    keyString.endsWith("_max_concurrent") ||
+                    keyString.equals("virtual_threads") ||
+                    keyString.equals("max_connections"))
+                settings.put(keyString, ""+ settingsJSON.get(key));
+        }
+
         return settings;
     }
 
+    /**
+     * Runs a single stage of a request with the named processor, on whichever
+     * thread the worker pool assigns to that processor.
+     * 
+     * @param processorName The processor to run (e.g., "booknlp").
+     * @param processorArgs The arguments to pass to the processor.
+     * @param jobRequest If not null, the processor should check its arguments
+     *                   and then queue this request as a job.
+     * @param requestLogger The logger for this stage.
+     * @param context The state shared by the stages of the request.
+     * @return Whether the stage completed successfully.
+     */
+    private boolean runStage(final String processorName, 
+            final String processorArgs, final String jobRequest,
+            final EntiTiesLogger.RequestLogger requestLogger,
+            final EntiTiesPipelineContext context) throws Exception {
+
+        return workerPool.runStage(processorName, new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+
+                // BookNLP processing.
+                if(processorName.equals("booknlp")) {
+                    BookNLPProcessor processor = new BookNLPProcessor();
+                    if(jobRequest != null)
+                        processor.deferAsJob(jobRequest);
+                    boolean succeeded = processor.processRequest(
+                        socket, processorArgs, requestLogger, context);
+                    deferredToJob = processor.wasDeferred();
+                    return succeeded;
+
+                // Simple tokenization.
+                } else if(processorName.equals("token")) {
+                    return new TokenProcessor().processRequest(
+                        socket, processorArgs, requestLogger, context);
+
+                // A range of a text's tokens.
+                } else if(processorName.equals("tokens")) {
+                    return new TokenRangeProcessor().processRequest(
+                        socket, processorArgs, requestLogger, context);
+
+                // Window-base tie extraction.
+                } else if(processorName.equals("tie-window")) {
+                    return new WindowTieProcessor().processRequest(
+                        socket, processorArgs, requestLogger, context);
+                }
+
+                error(socket.out, "EntiTiesDispatcher: Error: "+
+                    "Unrecognized processor '"+ processorName +
+                    "'. Valid processors: booknlp, token, tokens, "+
+                    "tie-window.");
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Tells the client the server is too busy to take its request and closes
+     * the connection. Used when the worker queue is full.
+     */
+    public void rejectBusy() {
+        socket.println(BUSY_RESPONSE);
+        logger.log("EntiTiesDispatcher: Worker queue full; replied busy "+
+            "to "+ clientLabel +".");
+        try {
+            if(!socket.isClosed())
+                socket.close();
+        } catch (IOException e) {
+            logger.log("Couldn't close a socket. Here's a stack trace: "+e);
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Sends an error to the given socket stream, logs it, then closes the
      * socket.
@@ -237,15 +484,18 @@ public class EntiTiesDispatcher extends Thread {
      * Fires up the server and listens for connections.
      */
     public static void main(String[] args) throws Exception {
-        HashMap<String, String> dbSettings;
+        final HashMap<String, String> dbSettings;
         int port = DEFAULT_PORT;
-        int clientNumber = 0;
 
         // Parse options.
         Options options = new Options();
         options.addOption("p", true, "the port to run on; defaults to "+
             DEFAULT_PORT);
         options.addOption("s", true, "the settings file");
+        options.addOption("v", false, "run requests on virtual threads "+
+            "(Java 21+)");
+        options.addOption("w", false, "only run job workers; don't listen "+
+            "for requests");
 
         CommandLine cmd = null;
         try {
@@ -261,11 +511,15 @@ public class EntiTiesDispatcher extends Thread {
             
             System.out.println(
                 "Usage: java EntiTiesDispatcher -s <json file> "+
-                    "[-p <port>] [-h]");
+                    "[-p <port>] [-v] [-w] [-h]");
             System.out.println(
                 "Use -p to override the port specified in the settings file "+ 
                 "under the\n`text_processing_port` key. If not prsent in the "+
-                "setting file, then\n"+DEFAULT_PORT +" will be used.");
+                "setting file, then\n"+DEFAULT_PORT +" will be used. Use -v "+
+                "to run each request on a virtual thread\n(the same as "+
+                "setting `virtual_threads` to true in the settings file).\n"+
+                "Use -w to run only job workers (see `job_queue` in the "+
+                "settings file), e.g.,\nto add workers on another machine.");
             return;
         }
 
@@ -286,19 +540,51 @@ public class EntiTiesDispatcher extends Thread {
         }
         System.out.println("authentication: "+dbSettings.get("authentication"));
         
+        if(cmd.hasOption("v"))
+            dbSettings.put("virtual_threads", "true");
+        if(cmd.hasOption("w"))
+            dbSettings.put("job_queue", "true");
+
         logger = new EntiTiesLogger();
+        workerPool = new EntiTiesWorkerPool(dbSettings, logger);
+
+        // Start loading the BookNLP models in the background, and build the
+        // tokenizer pipelines before taking any requests.
+        BookNLPModels.startWarmUp(logger);
+        BookNLPChunkedAnnotator.initialize(dbSettings);
+        EntiTiesTokenizerPool.initialize(dbSettings, logger);
+        TokenStoreCache.initialize(dbSettings);
+
+        // Start workers for queued jobs.
+        if("true".equals(dbSettings.get("job_queue"))){
+            EntiTiesJobWorker.startWorkers(dbSettings, logger);
+            if(cmd.hasOption("w")){
+                System.out.println("Running job workers only.");
+                Thread.currentThread().join();
+                return;
+            }
+        }
 
-        // Start server.
+        // Start server. Requests are read by the server's selector thread
+        // and handed to the worker pool once complete.
         System.out.println("Listening on  localhost:"+ port +".");
-        ServerSocket listener = new ServerSocket(port);
+        EntiTiesNioServer server = new EntiTiesNioServer(port, logger,
+            new EntiTiesNioServer.RequestHandler() {
+                private int clientNumber = 0;
+
+                public void requestReceived(EntiTiesSocket socket) {
+                    EntiTiesDispatcher dispatcher = new EntiTiesDispatcher(
+                        socket, clientNumber++, dbSettings);
+                    if(!workerPool.submit(
+                            dispatcher.getSchedulingProcessor(), dispatcher))
+                        dispatcher.rejectBusy();
+                }
+            });
         try {
-            while (true) {
-                new EntiTiesDispatcher(
-                    listener.accept(), clientNumber++, dbSettings).start();
-            }
+            server.run();
         } finally {
-            listener.close();
+            workerPool.shutdown();
         }
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
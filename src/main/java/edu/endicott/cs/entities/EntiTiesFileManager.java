@@ -5,7 +5,11 @@
 package edu.endicott.cs.entities;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 
 /**
@@ -15,6 +19,8 @@ import java.io.IOException;
  * @author Henry Feild
  */
 public class EntiTiesFileManager {
+    public static final String CACHE_DIRECTORY_NAME = "cache";
+
     String storageRoot;
     int textId, annotationId;
     File textDirectory, annotationDirectory;
@@ -36,7 +42,8 @@ public class EntiTiesFileManager {
      * the following directory structure:
      * 
      *  <storageRoot>/
-     *        `---- <annotationId>/
+     *        |---- <annotationId>/
+     *        `---- cache/
      * 
      * @param storageRoot The path to the root storage dirctory.
      * @param textId The id of the text.
@@ -76,6 +83,53 @@ public class EntiTiesFileManager {
         return new File(getTextDirectory(), filename);
     }
 
+    /**
+     * Files in the cache directory hold intermediate results that any
+     * annotation of the text may reuse. Callers should include a hash of the
+     * text's contents (see `hashFile`) and a version in each filename so that
+     * stale entries are never read.
+     * 
+     * @param filename The name of a file relative to the cache directory.
+     * @return A File instance for the given filename in the cache directory;
+     *         the cache directory is created if it doesn't exist.
+     */
+    public File getTextCacheFile(String filename) {
+        File cacheDirectory = new File(getTextDirectory(),
+            CACHE_DIRECTORY_NAME);
+        if(!cacheDirectory.exists())
+            cacheDirectory.mkdirs();
+        return new File(cacheDirectory, filename);
+    }
+
+    /**
+     * @param file The file to hash.
+     * @return The MD5 hash of the file's contents, in hex.
+     * @throws IOException
+     */
+    public static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while((bytesRead = in.read(buffer)) != -1)
+                digest.update(buffer, 0, bytesRead);
+        } finally {
+            in.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
     /**
      * @param filename The name of a file relative to the annotation directory.
      * @return A File instance for the given filename in the annotation directory.
@@ -83,4 +137,4 @@ public class EntiTiesFileManager {
     public File getAnnotationFile(String filename) {
         return new File(getAnnotationDirectory(), filename);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+// Files:   EntiTiesJSONWriter.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON arrays of strings (and arrays of arrays of strings) to a Writer
+ * as they're produced, rather than building a JSONArray in memory first.
+ * Commas between elements are added automatically. Strings are escaped in a
+ * single pass, exactly as json-simple's JSONValue.escape does, so the output
+ * is the same as JSONArray.writeJSONString would produce.
+ *
+ * The Writer should be buffered; this class writes a character at a time.
+ */
+public class EntiTiesJSONWriter implements Closeable {
+    private static final int MAX_DEPTH = 32;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private Writer out;
+    private boolean[] hasElements;
+    private int depth;
+
+    /**
+     * @param out Where to write the JSON; closed by `close`.
+     */
+    public EntiTiesJSONWriter(Writer out) {
+        this.out = out;
+        hasElements = new boolean[MAX_DEPTH];
+        depth = 0;
+    }
+
+    /**
+     * Starts an array, as an element of the current array if there is one.
+     *
+     * @throws IOException
+     */
+    public void beginArray() throws IOException {
+        separate();
+        out.write('[');
+        hasElements[++depth] = false;
+    }
+
+    /**
+     * Ends the current array.
+     *
+     * @throws IOException
+     */
+    public void endArray() throws IOException {
+        out.write(']');
+        depth--;
+    }
+
+    /**
+     * Writes a string as the next element of the current array.
+     *
+     * @param value The string (null is written as null).
+     * @throws IOException
+     */
+    public void string(String value) throws IOException {
+        separate();
+        if(value == null){
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        escape(value, out);
+        out.write('"');
+    }
+
+    /**
+     * Writes a comma if the current array already has an element.
+     *
+     * @throws IOException
+     */
+    private void separate() throws IOException {
+        if(depth == 0)
+            return;
+        if(hasElements[depth])
+            out.write(',');
+        hasElements[depth] = true;
+    }
+
+    /**
+     * Writes a string's characters with JSON escapes (without surrounding
+     * quotes).
+     *
+     * @param value The string to escape.
+     * @param out Where to write the escaped string.
+     * @throws IOException
+     */
+    public static void escape(CharSequence value, Writer out)
+            throws IOException {
+        int length = value.length();
+        for(int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            switch(c){
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\b': out.write("\\b"); break;
+                case '\f': out.write("\\f"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                case '/':  out.write("\\/"); break;
+                default:
+                    if((c >= '\u0000' && c <= '\u001F') ||
+                            (c >= '\u007F' && c <= '\u009F') ||
+                            (c >= '\u2000' && c <= '\u20FF')){
+                        out.write("\\u");
+                        out.write(HEX[(c >> 12) & 0xF]);
+                        out.write(HEX[(c >> 8) & 0xF]);
+                        out.write(HEX[(c >> 4) & 0xF]);
+                        out.write(HEX[c & 0xF]);
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the underlying Writer.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+}
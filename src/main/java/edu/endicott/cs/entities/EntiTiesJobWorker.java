@@ -0,0 +1,195 @@
+// Files:   EntiTiesJobWorker.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls jobs from the jobs table (see EntiTiesDatabase.claimJob) and runs
+ * them through the dispatcher. While a job runs, the worker records a
+ * heartbeat every HEARTBEAT_SECONDS; a job whose heartbeat goes stale (e.g.,
+ * because the JVM running it was killed) is picked up again by the next
+ * worker that polls, up to MAX_ATTEMPTS times. Any number of workers, in any
+ * number of JVMs, may share one database.
+ *
+ * Settings (see EntiTiesDispatcher.readEntiTiesConfigFile):
+ *
+ *  - job_queue         (true to queue booknlp requests as jobs)
+ *  - job_workers       (number of workers to run in this JVM)
+ *  - job_stale_seconds (how long a heartbeat may go unrefreshed)
+ */
+public class EntiTiesJobWorker implements Runnable {
+    public static final int DEFAULT_WORKERS = 1;
+    public static final int DEFAULT_STALE_SECONDS = 300;
+    public static final int HEARTBEAT_SECONDS = 30;
+    public static final int POLL_SECONDS = 5;
+    public static final int MAX_ATTEMPTS = 3;
+
+    private HashMap<String, String> settings;
+    private EntiTiesLogger.RequestLogger logger;
+    private String workerId;
+    private long staleMillis;
+    private ScheduledExecutorService heartbeats;
+    private EntiTiesDatabase database;
+
+    /**
+     * @param settings The settings read from the configuration file.
+     * @param logger The server's logger.
+     * @param workerNumber Distinguishes this worker from others in this JVM.
+     */
+    public EntiTiesJobWorker(HashMap<String, String> settings,
+            EntiTiesLogger logger, int workerNumber) {
+        this.settings = settings;
+
+        // The runtime name is pid@hostname, which keeps worker ids unique
+        // across JVMs and machines.
+        workerId = ManagementFactory.getRuntimeMXBean().getName() +
+            "/"+ workerNumber;
+        this.logger = logger.createRequestLogger(
+            "job worker "+ workerId +"\t");
+        staleMillis = 1000L * EntiTiesWorkerPool.getIntSetting(settings,
+            "job_stale_seconds", DEFAULT_STALE_SECONDS);
+        heartbeats = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Starts the configured number of workers on daemon threads.
+     *
+     * @param settings The settings read from the configuration file.
+     * @param logger The server's logger.
+     */
+    public static void startWorkers(HashMap<String, String> settings,
+            EntiTiesLogger logger) {
+        int workers = EntiTiesWorkerPool.getIntSetting(settings,
+            "job_workers", DEFAULT_WORKERS);
+        for(int i = 0; i < workers; i++){
+            Thread thread = new Thread(
+                new EntiTiesJobWorker(settings, logger, i), "job-worker-"+ i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        logger.log("Started "+ workers +" job worker(s).");
+    }
+
+    /**
+     * Claims and runs jobs until interrupted, sleeping POLL_SECONDS whenever
+     * there's nothing to do. The polling connection is reopened after any
+     * error. Jobs are long-running, so workers run in the bulk lane (see
+     * EntiTiesWorkerPool). Polling starts once the BookNLP models are loaded
+     * (see BookNLPModels).
+     */
+    public void run() {
+        EntiTiesWorkerPool.joinBulkLane();
+
+        // Don't claim jobs until the BookNLP models are loaded; workers that
+        // are already warm can take them in the meantime.
+        try {
+            BookNLPModels.get();
+        } catch (InterruptedException e) {
+            return;
+        } catch (Exception e) {
+            logger.log("Caught Exception: "+ e);
+        }
+
+        while(!Thread.currentThread().isInterrupted()){
+            try {
+                if(database == null)
+                    database = new EntiTiesDatabase(settings, logger);
+                if(!runNextJob())
+                    Thread.sleep(POLL_SECONDS * 1000L);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                logger.log("Caught Exception: "+ e);
+                e.printStackTrace();
+                closeDatabase();
+                try {
+                    Thread.sleep(POLL_SECONDS * 1000L);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        closeDatabase();
+        heartbeats.shutdownNow();
+    }
+
+    /**
+     * Closes the polling connection, if open.
+     */
+    private void closeDatabase() {
+        try {
+            if(database != null)
+                database.close();
+        } catch (SQLException e) {
+            logger.log("Couldn't close database connection.");
+        }
+        database = null;
+    }
+
+    /**
+     * Claims a single job, if one is available, and runs it.
+     *
+     * @return Whether a job was claimed.
+     */
+    private boolean runNextJob() throws Exception {
+        Timestamp staleBefore =
+            new Timestamp(new Date().getTime() - staleMillis);
+        database.failExhaustedJobs(staleBefore, MAX_ATTEMPTS);
+        final EntiTiesDatabase.Job job = 
+            database.claimJob(workerId, staleBefore, MAX_ATTEMPTS);
+        if(job == null)
+            return false;
+
+        logger.log("Claimed job "+ job.id +" (attempt "+ job.attempts +
+            "): "+ job.request);
+
+        // Keep the claim alive on its own connection while the job runs.
+        final EntiTiesDatabase heartbeatDatabase =
+            new EntiTiesDatabase(settings, logger);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+            new Runnable() {
+                public void run() {
+                    try {
+                        if(!heartbeatDatabase.heartbeatJob(job.id, workerId))
+                            logger.log("Lost the claim on job "+ job.id +".");
+                    } catch (SQLException e) {
+                        logger.log("Couldn't record heartbeat for job "+
+                            job.id +": "+ e);
+                    }
+                }
+            }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+
+        boolean succeeded = false;
+        String error = null;
+        try {
+            succeeded = EntiTiesDispatcher.runJob(job, settings);
+            if(!succeeded)
+                error = "one or more stages failed; see the server log";
+        } catch (Exception e) {
+            error = e.toString();
+            logger.log("Caught Exception running job "+ job.id +": "+ e);
+            e.printStackTrace();
+        } finally {
+            heartbeat.cancel(false);
+            heartbeatDatabase.close();
+        }
+
+        if(database.finishJob(job.id, workerId, succeeded, error))
+            logger.log("Finished job "+ job.id +" ("+
+                (succeeded ? "done" : "failed") +").");
+        else
+            logger.log("Job "+ job.id +" was reclaimed by another worker; "+
+                "leaving its status alone.");
+        return true;
+    }
+}
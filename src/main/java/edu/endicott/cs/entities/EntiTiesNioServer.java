@@ -0,0 +1,302 @@
+// Files:   EntiTiesNioServer.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A selector-based front end for the dispatcher. A single thread accepts
+ * connections, reads each client's request line without blocking, and hands
+ * complete requests to a RequestHandler (normally one that queues them on the
+ * worker pool). Responses written by workers are queued as ByteBuffers and
+ * sent by the selector thread as the client is able to take them, so a slow
+ * or idle client never holds up a worker thread.
+ */
+public class EntiTiesNioServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_REQUEST_LENGTH = 1 << 20;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    private static final long REQUEST_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * Called once for each complete request line received.
+     */
+    public static interface RequestHandler {
+        /**
+         * Handles a request. Called on the selector thread, so this should
+         * hand the work off rather than process it.
+         *
+         * @param socket The client's socket; `readLine` returns the request.
+         */
+        public void requestReceived(EntiTiesSocket socket);
+    }
+
+    /**
+     * The state of a single client connection: the partially read request,
+     * queued response buffers, and whether the connection should be closed
+     * once those buffers have been sent.
+     */
+    public class Connection {
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteArrayOutputStream requestBytes;
+        private String requestLine;
+        private ConcurrentLinkedQueue<ByteBuffer> pendingWrites;
+        private volatile boolean closeRequested;
+        private long lastReadAt;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            requestBytes = new ByteArrayOutputStream();
+            requestLine = null;
+            pendingWrites = new ConcurrentLinkedQueue<ByteBuffer>();
+            closeRequested = false;
+            lastReadAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return The request line sent by the client, without the trailing
+         *         newline, or null if it hasn't been received yet.
+         */
+        public String getRequestLine() {
+            return requestLine;
+        }
+
+        /**
+         * Queues bytes to be sent to the client. Safe to call from any
+         * thread; never blocks.
+         *
+         * @param buffer The bytes to send.
+         */
+        public void write(ByteBuffer buffer) {
+            if(closeRequested)
+                return;
+            pendingWrites.add(buffer);
+            requestUpdate(this);
+        }
+
+        /**
+         * Closes the connection once all queued bytes have been sent. Safe to
+         * call from any thread.
+         */
+        public void close() {
+            closeRequested = true;
+            requestUpdate(this);
+        }
+
+        /**
+         * @return Whether the connection has been closed or is closing.
+         */
+        public boolean isClosed() {
+            return closeRequested || !channel.isOpen();
+        }
+    }
+
+    private int port;
+    private EntiTiesLogger logger;
+    private RequestHandler handler;
+    private Selector selector;
+    private ConcurrentLinkedQueue<Connection> pendingUpdates;
+
+    /**
+     * @param port The port to listen on.
+     * @param logger The logger to report connection problems to.
+     * @param handler Receives each complete request.
+     */
+    public EntiTiesNioServer(int port, EntiTiesLogger logger,
+            RequestHandler handler) {
+        this.port = port;
+        this.logger = logger;
+        this.handler = handler;
+        pendingUpdates = new ConcurrentLinkedQueue<Connection>();
+    }
+
+    /**
+     * Listens for connections and services them until the thread is
+     * interrupted.
+     *
+     * @throws IOException If the server socket can't be opened.
+     */
+    public void run() throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        selector = Selector.open();
+        try {
+            listener.configureBlocking(false);
+            listener.socket().bind(new InetSocketAddress(port));
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+
+            while(!Thread.currentThread().isInterrupted()){
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                applyPendingUpdates();
+
+                Iterator<SelectionKey> keys =
+                    selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if(!key.isValid())
+                            continue;
+                        if(key.isAcceptable())
+                            accept(listener);
+                        else if(key.isReadable())
+                            read((Connection) key.attachment());
+                        else if(key.isWritable())
+                            write((Connection) key.attachment());
+                    } catch (IOException e) {
+                        logger.log("EntiTiesNioServer: Dropping connection: "+
+                            e);
+                        if(key.attachment() != null)
+                            closeNow((Connection) key.attachment());
+                    }
+                }
+
+                closeIdleConnections();
+            }
+        } finally {
+            for(SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+            listener.close();
+        }
+    }
+
+    /**
+     * Accepts a new client and starts reading its request.
+     */
+    private void accept(ServerSocketChannel listener) throws IOException {
+        SocketChannel channel = listener.accept();
+        if(channel == null)
+            return;
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(
+            selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Reads whatever the client has sent. Once a full line has arrived, stops
+     * reading and hands the request off.
+     */
+    private void read(Connection connection) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int bytesRead = connection.channel.read(buffer);
+        if(bytesRead == -1){
+            closeNow(connection);
+            return;
+        }
+        connection.lastReadAt = System.currentTimeMillis();
+
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            byte b = buffer.get();
+            if(b == '\n'){
+                String line = new String(connection.requestBytes.toByteArray(),
+                    StandardCharsets.UTF_8);
+                if(line.endsWith("\r"))
+                    line = line.substring(0, line.length()-1);
+                connection.requestLine = line;
+                connection.requestBytes = null;
+                connection.key.interestOps(0);
+                handler.requestReceived(new EntiTiesSocket(connection));
+                return;
+            }
+            connection.requestBytes.write(b);
+        }
+
+        if(connection.requestBytes.size() > MAX_REQUEST_LENGTH){
+            logger.log("EntiTiesNioServer: Request exceeded "+
+                MAX_REQUEST_LENGTH +" bytes; closing connection.");
+            closeNow(connection);
+        }
+    }
+
+    /**
+     * Sends as much queued output as the client will take without blocking.
+     */
+    private void write(Connection connection) throws IOException {
+        ByteBuffer buffer;
+        while((buffer = connection.pendingWrites.peek()) != null){
+            connection.channel.write(buffer);
+            if(buffer.hasRemaining())
+                return;
+            connection.pendingWrites.poll();
+        }
+
+        if(connection.closeRequested)
+            closeNow(connection);
+        else
+            connection.key.interestOps(0);
+    }
+
+    /**
+     * Asks the selector thread to look at a connection's queued output or
+     * close request. Interest ops are only changed on the selector thread.
+     */
+    private void requestUpdate(Connection connection) {
+        pendingUpdates.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Starts watching for writability on connections with queued output, and
+     * closes connections that asked to be closed and have nothing left to
+     * send.
+     */
+    private void applyPendingUpdates() {
+        Connection connection;
+        while((connection = pendingUpdates.poll()) != null){
+            if(!connection.channel.isOpen())
+                continue;
+            try {
+                if(!connection.pendingWrites.isEmpty())
+                    connection.key.interestOps(SelectionKey.OP_WRITE);
+                else if(connection.closeRequested)
+                    closeNow(connection);
+            } catch (Exception e) {
+                closeNow(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes connections whose clients have not finished sending a request
+     * within REQUEST_TIMEOUT_MILLIS of their last read.
+     */
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        for(SelectionKey key : selector.keys()){
+            Connection connection = (Connection) key.attachment();
+            if(connection != null && connection.requestLine == null &&
+                    now - connection.lastReadAt > REQUEST_TIMEOUT_MILLIS){
+                logger.log("EntiTiesNioServer: Timed out waiting for a "+
+                    "request; closing connection.");
+                closeNow(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes a connection immediately, discarding any queued output.
+     */
+    private void closeNow(Connection connection) {
+        connection.closeRequested = true;
+        connection.pendingWrites.clear();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            logger.log("EntiTiesNioServer: Couldn't close a connection: "+ e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+// Files:   EntiTiesPipelineContext.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import edu.endicott.cs.entities.annotations.CompactAnnotation;
+
+/**
+ * State shared by the stages of a single request (e.g.,
+ * booknlp::::tie-window): one database connection, and the annotation the
+ * stages are building. A stage that produces an annotation saves it here
+ * rather than posting it to the database; the next stage picks up the live
+ * annotation (a CompactAnnotation) instead of reading and re-parsing it, and
+ * the annotation is written to the database once, by the last stage to save
+ * it.
+ *
+ * The connection is opened the first time a stage asks for it, so requests
+ * that are turned away as busy, or never touch the database (like tokens),
+ * don't open one.
+ */
+public class EntiTiesPipelineContext {
+    private HashMap<String, String> settings;
+    private EntiTiesLogger.RequestLogger logger;
+    private EntiTiesDatabase database;
+    private CompactAnnotation annotation;
+    private int annotationId;
+    private boolean annotationPending;
+    private int remainingStages;
+
+    /**
+     * @param settings The database settings.
+     * @param logger The logger for the database connection.
+     */
+    public EntiTiesPipelineContext(HashMap<String, String> settings,
+            EntiTiesLogger.RequestLogger logger) {
+        this.settings = settings;
+        this.logger = logger;
+        database = null;
+        annotation = null;
+        annotationId = -1;
+        annotationPending = false;
+        remainingStages = 0;
+    }
+
+    /**
+     * @return The database connection shared by all stages, opened on the
+     *         first call. Stages should not close it.
+     */
+    public EntiTiesDatabase getDatabase() {
+        if(database == null)
+            database = new EntiTiesDatabase(settings, logger);
+        return database;
+    }
+
+    /**
+     * Set by the dispatcher before each stage runs.
+     *
+     * @param remainingStages The number of stages after the current one.
+     */
+    public void setRemainingStages(int remainingStages) {
+        this.remainingStages = remainingStages;
+    }
+
+    /**
+     * @param annotationId The id of an annotation.
+     * @return The annotation saved by an earlier stage, or null if no earlier
+     *         stage saved an annotation with that id.
+     */
+    public CompactAnnotation getAnnotation(int annotationId) {
+        if(annotation != null && this.annotationId == annotationId)
+            return annotation;
+        return null;
+    }
+
+    /**
+     * Saves an annotation for later stages. If this is the last stage, the
+     * annotation is posted to the database right away; otherwise the post
+     * waits until the end of the request (see `flush`).
+     *
+     * @param annotationId The id of the annotation.
+     * @param annotation The annotation.
+     * @return False if the annotation needed to be posted and couldn't be.
+     * @throws SQLException
+     */
+    public boolean saveAnnotation(int annotationId,
+            CompactAnnotation annotation) throws SQLException {
+
+        // Post a different annotation saved by an earlier stage before
+        // replacing it.
+        if(annotationPending && this.annotationId != annotationId)
+            flush();
+
+        this.annotationId = annotationId;
+        this.annotation = annotation;
+        annotationPending = true;
+
+        if(remainingStages <= 0)
+            return flush();
+        return true;
+    }
+
+    /**
+     * @return Whether an annotation has been saved but not yet posted.
+     */
+    public boolean hasPendingAnnotation() {
+        return annotationPending;
+    }
+
+    /**
+     * @return The id of the most recently saved annotation, or -1.
+     */
+    public int getAnnotationId() {
+        return annotationId;
+    }
+
+    /**
+     * Posts the saved annotation to the database, if it hasn't been already.
+     *
+     * @return False if the post failed.
+     * @throws SQLException
+     */
+    public boolean flush() throws SQLException {
+        if(!annotationPending)
+            return true;
+        annotationPending = false;
+        return getDatabase().postAnnotation(annotationId, annotation);
+    }
+
+    /**
+     * Closes the shared database connection, if it was opened.
+     *
+     * @throws SQLException
+     */
+    public void close() throws SQLException {
+        if(database != null)
+            database.close();
+    }
+}
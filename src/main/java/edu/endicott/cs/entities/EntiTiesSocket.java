@@ -4,57 +4,62 @@
 
 package edu.endicott.cs.entities;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
 
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
- * A wrapper for java.net.Socket. Holds the socket as well as an input and
- * output stream. Each can be publicly accessed on an instance of this class,
- * though a few commonly used methods have been exposed for convienience and
- * readability.
+ * A wrapper for a client connection accepted by EntiTiesNioServer. Holds the
+ * request line that was read from the client and an output stream; each can
+ * be publicly accessed on an instance of this class, though a few commonly
+ * used methods have been exposed for convienience and readability.
+ * 
+ * Writes never block: output is handed to the server's selector thread, which
+ * sends it as the client is able to receive it. Closing the socket likewise
+ * waits for queued output to be sent.
+ * 
+ * A detached socket (see `detached`) has no client; it reads nothing, 
+ * discards anything written to it, and always reports itself closed. It's
+ * used to run requests that were queued as jobs after the client had been
+ * answered.
  *
  * @author Henry Feild
  */
 public class EntiTiesSocket {
     public PrintWriter out;
-    public BufferedReader in;
-    public Socket socket;
+    public EntiTiesNioServer.Connection connection;
+    private boolean requestRead;
 
     /**
-     * Sets the socket and initilizes the input and output streams to null.
+     * Wraps the connection and opens the output stream on it.
      */
-    public EntiTiesSocket(Socket socket) {
-        this.socket = socket;
-        in = null;
-        out = null;
+    public EntiTiesSocket(EntiTiesNioServer.Connection connection) {
+        this.connection = connection;
+        requestRead = false;
+
+        // To write characters to the connection.
+        out = new PrintWriter(new ConnectionWriter(), true);
     }
 
     /**
-     * Opens the input and output streams on this socket.
-     * @throws IOException
+     * @return A socket with no client behind it.
      */
-    public void initialize() throws IOException {
-        // To read characters from the stream.
-        in = new BufferedReader(
-            new InputStreamReader(socket.getInputStream()));
-
-        // To write characters to the stream.
-        out = new PrintWriter(socket.getOutputStream(),true);
+    public static EntiTiesSocket detached() {
+        return new EntiTiesSocket(null);
     }
 
     /**
-     * @return The next line of text from the input stream.
+     * @return The request line the first time this is called, then null.
      * @throws IOException
      */
     public String readLine() throws IOException {
-        return in.readLine();
+        if(requestRead || connection == null)
+            return null;
+        requestRead = true;
+        return connection.getRequestLine();
     }
 
     /**
@@ -66,12 +71,14 @@ public class EntiTiesSocket {
     }
 
     /**
-     * Closes the socket.
+     * Closes the socket once any pending output has been sent.
      * 
      * @throws IOException
      */
     public void close() throws IOException {
-        socket.close();
+        out.flush();
+        if(connection != null)
+            connection.close();
     }
 
     /**
@@ -79,6 +86,34 @@ public class EntiTiesSocket {
      * @throws IOException
      */
     public boolean isClosed() {
-        return socket.isClosed();
+        return connection == null || connection.isClosed();
+    }
+
+    /**
+     * Collects characters written to `out` and queues them on the connection
+     * as UTF-8 bytes each time the stream is flushed.
+     */
+    private class ConnectionWriter extends Writer {
+        private StringBuilder pending = new StringBuilder();
+
+        public void write(char[] buffer, int offset, int length) {
+            pending.append(buffer, offset, length);
+        }
+
+        public void flush() {
+            if(pending.length() == 0)
+                return;
+            if(connection == null){
+                pending.setLength(0);
+                return;
+            }
+            connection.write(ByteBuffer.wrap(
+                pending.toString().getBytes(StandardCharsets.UTF_8)));
+            pending.setLength(0);
+        }
+
+        public void close() {
+            flush();
+        }
     }
 }
\ No newline at end of file
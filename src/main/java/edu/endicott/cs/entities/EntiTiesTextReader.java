@@ -0,0 +1,257 @@
+// Files:   EntiTiesTextReader.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 text (e.g., original.txt) in chunks that end at paragraph
+ * breaks, so a long text can be processed a piece at a time without ever
+ * holding all of it in memory. The file is memory-mapped a window at a time
+ * and decoded only as far as the chunks asked for so far need.
+ *
+ * The characters read are exactly those BookNLP's Util.readText produces
+ * for the same file: line endings (\r\n, \r, and \n) become \n and the last
+ * line always ends with \n. Offsets into the text (see `getChunkStart`) can
+ * therefore be used in place of offsets into Util.readText's string.
+ *
+ * Usage:
+ *
+ *     reader = new EntiTiesTextReader(file);
+ *     String sample = reader.peek(SAMPLE_CHARACTERS);
+ *     while((chunk = reader.nextChunk(target, max)) != null)
+ *         ... chunk starts at reader.getChunkStart() ...
+ *     reader.close();
+ */
+public class EntiTiesTextReader implements Closeable {
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int DECODE_SIZE = 64 * 1024;
+
+    private FileChannel channel;
+    private long fileSize;
+    private long windowStart;
+    private MappedByteBuffer window;
+    private CharsetDecoder decoder;
+    private CharBuffer decoded;
+    private boolean endOfInput;
+    private boolean lastWasCarriageReturn, lineOpen;
+
+    // Characters decoded but not yet returned as part of a chunk.
+    private StringBuilder pending;
+    private int pendingStart, chunkStart;
+
+    /**
+     * @param textFile The file to read (UTF-8).
+     * @throws IOException
+     */
+    public EntiTiesTextReader(File textFile) throws IOException {
+        channel = FileChannel.open(textFile.toPath(), StandardOpenOption.READ);
+        fileSize = channel.size();
+        decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoded = CharBuffer.allocate(DECODE_SIZE);
+        endOfInput = false;
+        lastWasCarriageReturn = false;
+        lineOpen = false;
+        pending = new StringBuilder();
+        pendingStart = 0;
+        chunkStart = 0;
+        mapWindow(0);
+    }
+
+    /**
+     * Returns the start of the text that hasn't been returned in a chunk yet,
+     * without consuming it.
+     *
+     * @param characters The most characters to return.
+     * @return Up to `characters` characters (fewer only if the text ends).
+     * @throws IOException
+     */
+    public String peek(int characters) throws IOException {
+        while(pending.length() < characters && decodeMore());
+        return pending.substring(0, Math.min(characters, pending.length()));
+    }
+
+    /**
+     * Reads the next chunk. A chunk ends just after the first paragraph break
+     * (a blank line, plus any whitespace after it) that ends at least
+     * `targetCharacters` into the chunk; breaks at the very end of the text
+     * don't count, so the last chunk gets any trailing whitespace. If no
+     * paragraph break turns up within `maxCharacters`, the chunk ends after
+     * the first newline at or past `targetCharacters` instead.
+     *
+     * @param targetCharacters The smallest size of any chunk but the last.
+     * @param maxCharacters The size past which any newline will do; use
+     *                      Integer.MAX_VALUE to only ever split at blank
+     *                      lines.
+     * @return The chunk, or null if the whole text has been read.
+     * @throws IOException
+     */
+    public String nextChunk(int targetCharacters, int maxCharacters)
+            throws IOException {
+        while(pending.length() <= targetCharacters && decodeMore());
+        if(pending.length() == 0)
+            return null;
+
+        int end = -1;
+        int searchFrom = Math.min(targetCharacters, pending.length());
+        while(end == -1){
+            int scanned = searchFrom;
+            boolean needMore = false;
+            for(int i = searchFrom; i < pending.length(); i++){
+                if(pending.charAt(i) != '\n')
+                    continue;
+
+                // Is this line followed by a blank one?
+                int j = i + 1;
+                while(j < pending.length() && isLineSpace(pending.charAt(j)))
+                    j++;
+                boolean blankLine = j < pending.length() &&
+                    pending.charAt(j) == '\n';
+                boolean fallback = !blankLine && i >= maxCharacters;
+                if(j == pending.length() && !endOfInput){
+                    scanned = i;
+                    needMore = true;
+                    break;
+                }
+                if(!blankLine && !fallback)
+                    continue;
+
+                // Take the rest of the whitespace, too.
+                int k = blankLine ? j + 1 : i + 1;
+                while(k < pending.length() &&
+                        Character.isWhitespace(pending.charAt(k)))
+                    k++;
+                if(k == pending.length()){
+                    if(!endOfInput){
+                        scanned = i;
+                        needMore = true;
+                        break;
+                    }
+                    // Only whitespace is left; it belongs to this chunk.
+                    end = pending.length();
+                } else {
+                    end = k;
+                }
+                break;
+            }
+
+            if(end != -1)
+                break;
+            if(!needMore)
+                scanned = pending.length();
+            if(!decodeMore()){
+                end = pending.length();
+                break;
+            }
+            searchFrom = scanned;
+        }
+
+        String chunk = pending.substring(0, end);
+        pending.delete(0, end);
+        chunkStart = pendingStart;
+        pendingStart += end;
+        return chunk;
+    }
+
+    /**
+     * @return The offset, within the whole text, of the first character of
+     *         the chunk most recently returned by `nextChunk`.
+     */
+    public int getChunkStart() {
+        return chunkStart;
+    }
+
+    /**
+     * @param c A character.
+     * @return Whether `c` is whitespace that can appear on a blank line
+     *         (i.e., isn't a newline).
+     */
+    private static boolean isLineSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\f';
+    }
+
+    /**
+     * Maps the window of the file starting at the given position.
+     *
+     * @param start The byte position of the start of the window.
+     * @throws IOException
+     */
+    private void mapWindow(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(WINDOW_SIZE, fileSize - start));
+    }
+
+    /**
+     * Decodes the next block of the file onto the end of `pending`, moving
+     * the window along as needed.
+     *
+     * @return False if the whole file had already been decoded.
+     * @throws IOException
+     */
+    private boolean decodeMore() throws IOException {
+        if(endOfInput)
+            return false;
+
+        boolean lastWindow = windowStart + window.limit() == fileSize;
+        decoded.clear();
+        CoderResult result = decoder.decode(window, decoded, lastWindow);
+        if(result.isError())
+            result.throwException();
+        if(result.isUnderflow()){
+            if(lastWindow){
+                decoder.flush(decoded);
+                endOfInput = true;
+            } else {
+                // Any bytes left over are the start of a character that
+                // continues in the next window.
+                mapWindow(windowStart + window.position());
+            }
+        }
+        decoded.flip();
+
+        // Convert line endings the way BufferedReader.readLine does.
+        while(decoded.hasRemaining()){
+            char c = decoded.get();
+            if(c == '\n' && lastWasCarriageReturn){
+                lastWasCarriageReturn = false;
+                continue;
+            }
+            lastWasCarriageReturn = c == '\r';
+            if(c == '\r' || c == '\n'){
+                pending.append('\n');
+                lineOpen = false;
+            } else {
+                pending.append(c);
+                lineOpen = true;
+            }
+        }
+        if(endOfInput && lineOpen)
+            pending.append('\n');
+
+        return true;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,117 @@
+// Files:   EntiTiesTokenizerPool.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+/**
+ * A process-wide pool of Stanford CoreNLP "tokenize, ssplit" pipelines.
+ * Building a pipeline loads and initializes its annotators, which takes far
+ * longer than tokenizing a typical text, so pipelines are built (and run once
+ * on a short text to finish warming up) when the server starts and then
+ * shared by every tokenization request. Each pipeline is used by one thread
+ * at a time: `borrow` waits for a free pipeline and `giveBack` returns it.
+ *
+ * The pool size is read from the `tokenizer_pipelines` setting, and defaults
+ * to the number of token requests allowed to run at once (see
+ * EntiTiesWorkerPool), so a token request never waits on a pipeline.
+ *
+ * Long texts are tokenized in chunks of about `tokenizer_chunk_characters`
+ * characters (default 1,000,000; see TokenProcessor.process(File)).
+ */
+public class EntiTiesTokenizerPool {
+    public static final String ANNOTATORS = "tokenize, ssplit";
+    public static final int DEFAULT_CHUNK_CHARACTERS = 1000000;
+    private static final String WARM_UP_TEXT =
+        "Warming up the tokenizer.\n\n\"Is it ready?\" she asked.";
+
+    private static BlockingQueue<StanfordCoreNLP> pipelines = null;
+    private static int chunkCharacters = DEFAULT_CHUNK_CHARACTERS;
+
+    /**
+     * Builds and warms the pool's pipelines. Calling this more than once has
+     * no effect.
+     *
+     * @param settings The settings read from the configuration file.
+     * @param logger The server's logger.
+     */
+    public static synchronized void initialize(
+            HashMap<String, String> settings, EntiTiesLogger logger) {
+        if(pipelines != null)
+            return;
+
+        int size = EntiTiesWorkerPool.getIntSetting(settings,
+            "tokenizer_pipelines", EntiTiesWorkerPool.getIntSetting(settings,
+                "token_max_concurrent",
+                EntiTiesWorkerPool.DEFAULT_PROCESSOR_LIMITS.get("token")));
+        if(size < 1)
+            size = 1;
+        chunkCharacters = Math.max(1, EntiTiesWorkerPool.getIntSetting(
+            settings, "tokenizer_chunk_characters", DEFAULT_CHUNK_CHARACTERS));
+
+        long start = System.currentTimeMillis();
+        BlockingQueue<StanfordCoreNLP> newPipelines =
+            new ArrayBlockingQueue<StanfordCoreNLP>(size);
+        for(int i = 0; i < size; i++)
+            newPipelines.add(createPipeline());
+        pipelines = newPipelines;
+
+        if(logger != null)
+            logger.log("EntiTiesTokenizerPool: Warmed "+ size +
+                " tokenizer pipeline(s) in "+
+                (System.currentTimeMillis() - start) +" ms.");
+    }
+
+    /**
+     * Builds a pipeline and runs it once so that everything it loads lazily
+     * is loaded now.
+     *
+     * @return A ready-to-use pipeline.
+     */
+    private static StanfordCoreNLP createPipeline() {
+        Properties props = new Properties();
+        props.put("annotators", ANNOTATORS);
+        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+        pipeline.annotate(new Annotation(WARM_UP_TEXT));
+        return pipeline;
+    }
+
+    /**
+     * Takes a pipeline from the pool, waiting for one to be returned if all
+     * are in use. If the pool hasn't been initialized (e.g., when
+     * TokenProcessor is run on its own), it's initialized with the defaults.
+     *
+     * @return A pipeline for the caller's exclusive use; pass it to
+     *         `giveBack` when done.
+     * @throws InterruptedException
+     */
+    public static StanfordCoreNLP borrow() throws InterruptedException {
+        if(pipelines == null)
+            initialize(new HashMap<String, String>(), null);
+        return pipelines.take();
+    }
+
+    /**
+     * @return The target size of the chunks long texts are tokenized in.
+     */
+    public static int getChunkCharacters() {
+        return chunkCharacters;
+    }
+
+    /**
+     * Returns a pipeline taken with `borrow` to the pool.
+     *
+     * @param pipeline The pipeline to return.
+     */
+    public static void giveBack(StanfordCoreNLP pipeline) {
+        if(pipeline != null)
+            pipelines.offer(pipeline);
+    }
+}
@@ -0,0 +1,386 @@
+// Files:   EntiTiesWorkerPool.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules dispatcher requests onto lanes, each with its own threads and
+ * bounded queue, and caps how many requests each processor may run at once.
+ * Requests that arrive while a lane's threads are busy and its queue is full
+ * are rejected so the caller can tell the client to try again later.
+ *
+ * There are two lanes:
+ *
+ *  - interactive: short requests (token, tie-window) that a user is waiting
+ *    on. These threads are reserved; long-running work never uses them, so
+ *    a few BookNLP runs can't starve quick re-runs of tie extraction.
+ *  - bulk: long, CPU-heavy requests (booknlp). A small number of threads
+ *    that run at a lower priority than everything else.
+ *
+ * Requests are placed by the name of their first processor (see
+ * DEFAULT_PROCESSOR_LANES; override with <processor>_lane in the settings).
+ *
+ * When virtual threads are enabled (and the JVM supports them; Java 21+),
+ * each interactive request instead gets its own virtual thread, up to
+ * max_connections in flight. Those requests spend most of their time waiting
+ * on the database, disk, or socket, which virtual threads do cheaply. The
+ * bulk lane always uses platform threads.
+ *
+ * All limits are read from the settings file (see
+ * EntiTiesDispatcher.readEntiTiesConfigFile); any that are missing fall back
+ * to the defaults below.
+ */
+public class EntiTiesWorkerPool {
+    public static final String INTERACTIVE_LANE = "interactive";
+    public static final String BULK_LANE = "bulk";
+
+    public static final int DEFAULT_WORKER_THREADS = 8;
+    public static final int DEFAULT_QUEUE_SIZE = 32;
+    public static final int DEFAULT_BULK_QUEUE_SIZE = 8;
+    public static final int DEFAULT_MAX_CONNECTIONS = 2000;
+    public static final int BULK_THREAD_PRIORITY = Thread.MIN_PRIORITY;
+
+    /**
+     * Default per-processor concurrency caps. BookNLP holds a great deal of
+     * memory per run, so only a couple are allowed at a time.
+     */
+    public static final HashMap<String, Integer> DEFAULT_PROCESSOR_LIMITS =
+        new HashMap<String, Integer>();
+    static {
+        DEFAULT_PROCESSOR_LIMITS.put("booknlp", 2);
+        DEFAULT_PROCESSOR_LIMITS.put("token", 4);
+        DEFAULT_PROCESSOR_LIMITS.put("tokens", 16);
+        DEFAULT_PROCESSOR_LIMITS.put("tie-window", 8);
+    }
+
+    /**
+     * Default lane for each processor; processors not listed are interactive.
+     */
+    public static final HashMap<String, String> DEFAULT_PROCESSOR_LANES =
+        new HashMap<String, String>();
+    static {
+        DEFAULT_PROCESSOR_LANES.put("booknlp", BULK_LANE);
+        DEFAULT_PROCESSOR_LANES.put("token", INTERACTIVE_LANE);
+        DEFAULT_PROCESSOR_LANES.put("tokens", INTERACTIVE_LANE);
+        DEFAULT_PROCESSOR_LANES.put("tie-window", INTERACTIVE_LANE);
+    }
+
+    /**
+     * The lane the current thread belongs to, if it's a lane thread.
+     */
+    private static final ThreadLocal<String> currentLane =
+        new ThreadLocal<String>();
+
+    /**
+     * A set of threads and the queue that feeds them. If `permits` is set,
+     * the executor doesn't bound itself and the permits are used instead.
+     */
+    private static class Lane {
+        String name;
+        ExecutorService executor;
+        Semaphore permits;
+
+        Lane(String name, ExecutorService executor, Semaphore permits) {
+            this.name = name;
+            this.executor = executor;
+            this.permits = permits;
+        }
+
+        boolean submit(final Runnable request) {
+            if(permits != null && !permits.tryAcquire())
+                return false;
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        currentLane.set(name);
+                        try {
+                            request.run();
+                        } finally {
+                            if(permits != null)
+                                permits.release();
+                        }
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                if(permits != null)
+                    permits.release();
+                return false;
+            }
+        }
+    }
+
+    private HashMap<String, Lane> lanes;
+    private HashMap<String, String> processorLanes;
+    private HashMap<String, Semaphore> processorPermits;
+
+    /**
+     * Creates the lanes and per-processor permits from the given settings.
+     * Recognized keys:
+     *
+     *  - worker_threads             (interactive lane threads)
+     *  - worker_queue_size          (requests allowed to wait for one)
+     *  - bulk_threads               (bulk lane threads; defaults to
+     *                                booknlp_max_concurrent)
+     *  - bulk_queue_size            (requests allowed to wait for one)
+     *  - <processor>_lane           (interactive or bulk)
+     *  - <processor>_max_concurrent (e.g., booknlp_max_concurrent)
+     *  - virtual_threads            (true to run interactive requests on
+     *                                virtual threads)
+     *  - max_connections            (interactive requests in flight with
+     *                                virtual threads)
+     *
+     * @param settings The settings read from the configuration file.
+     * @param logger The logger to report the threading mode to.
+     */
+    public EntiTiesWorkerPool(HashMap<String, String> settings,
+            EntiTiesLogger logger) {
+
+        processorPermits = new HashMap<String, Semaphore>();
+        for(String processorName : DEFAULT_PROCESSOR_LIMITS.keySet()){
+            processorPermits.put(processorName, new Semaphore(getIntSetting(
+                settings, processorName +"_max_concurrent",
+                DEFAULT_PROCESSOR_LIMITS.get(processorName)), true));
+        }
+
+        processorLanes = new HashMap<String, String>(DEFAULT_PROCESSOR_LANES);
+        for(String key : settings.keySet()){
+            if(key.endsWith("_lane")){
+                String lane = settings.get(key);
+                if(lane.equals(INTERACTIVE_LANE) || lane.equals(BULK_LANE))
+                    processorLanes.put(
+                        key.substring(0, key.length()-"_lane".length()), lane);
+                else
+                    logger.log("EntiTiesWorkerPool: Ignoring unknown lane '"+
+                        lane +"' for "+ key +".");
+            }
+        }
+
+        lanes = new HashMap<String, Lane>();
+
+        // Interactive lane.
+        ExecutorService virtualExecutor = null;
+        if("true".equals(settings.get("virtual_threads"))){
+            virtualExecutor = newVirtualThreadPerTaskExecutor();
+            if(virtualExecutor == null)
+                logger.log("EntiTiesWorkerPool: Virtual threads aren't "+
+                    "supported by this JVM; using platform threads.");
+        }
+
+        if(virtualExecutor != null){
+            lanes.put(INTERACTIVE_LANE, new Lane(INTERACTIVE_LANE,
+                virtualExecutor, new Semaphore(getIntSetting(settings,
+                    "max_connections", DEFAULT_MAX_CONNECTIONS))));
+            logger.log("EntiTiesWorkerPool: Running interactive requests on "+
+                "virtual threads.");
+        } else {
+            lanes.put(INTERACTIVE_LANE, new Lane(INTERACTIVE_LANE,
+                newBoundedExecutor(
+                    getIntSetting(settings, "worker_threads",
+                        DEFAULT_WORKER_THREADS),
+                    getIntSetting(settings, "worker_queue_size",
+                        DEFAULT_QUEUE_SIZE),
+                    INTERACTIVE_LANE, Thread.NORM_PRIORITY),
+                null));
+        }
+
+        // Bulk lane.
+        lanes.put(BULK_LANE, new Lane(BULK_LANE,
+            newBoundedExecutor(
+                getIntSetting(settings, "bulk_threads", getIntSetting(
+                    settings, "booknlp_max_concurrent",
+                    DEFAULT_PROCESSOR_LIMITS.get("booknlp"))),
+                getIntSetting(settings, "bulk_queue_size",
+                    DEFAULT_BULK_QUEUE_SIZE),
+                BULK_LANE, BULK_THREAD_PRIORITY),
+            null));
+    }
+
+    /**
+     * @param processorName The name of a processor, or null.
+     * @return The name of the lane requests led by that processor run in.
+     */
+    public String getLane(String processorName) {
+        if(processorName == null || !processorLanes.containsKey(processorName))
+            return INTERACTIVE_LANE;
+        return processorLanes.get(processorName);
+    }
+
+    /**
+     * Queues a request in the lane for the given processor.
+     *
+     * @param processorName The request's first processor, or null for the
+     *                      interactive lane.
+     * @param request The request to run.
+     * @return False if the lane is at capacity and the request was not
+     *         accepted.
+     */
+    public boolean submit(String processorName, Runnable request) {
+        return lanes.get(getLane(processorName)).submit(request);
+    }
+
+    /**
+     * Runs a processor stage. Stages belonging to the bulk lane that come up
+     * on a thread outside of it (e.g., later in a chain that started with an
+     * interactive processor) are handed to the bulk lane while the calling
+     * thread waits; everything else runs on the calling thread.
+     *
+     * @param processorName The name of the processor (e.g., "booknlp").
+     * @param stage The stage to run.
+     * @return The stage's result.
+     * @throws RejectedExecutionException If the stage had to be handed to
+     *                                    the bulk lane and its queue is full.
+     * @throws Exception Anything thrown by the stage.
+     */
+    public boolean runStage(String processorName, Callable<Boolean> stage)
+            throws Exception {
+        String lane = getLane(processorName);
+        if(!lane.equals(BULK_LANE) || BULK_LANE.equals(currentLane.get()))
+            return stage.call();
+
+        try {
+            return lanes.get(lane).executor.submit(stage).get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Marks the calling thread as a bulk lane thread and lowers its priority
+     * to match. For long-running threads outside the pool, like job workers,
+     * that run bulk work themselves.
+     */
+    public static void joinBulkLane() {
+        currentLane.set(BULK_LANE);
+        Thread.currentThread().setPriority(BULK_THREAD_PRIORITY);
+    }
+
+    /**
+     * Reserves a slot for the given processor without waiting. Processors
+     * without a configured cap are always admitted.
+     *
+     * @param processorName The name of the processor (e.g., "booknlp").
+     * @return True if a slot was reserved; release it with `release`.
+     */
+    public boolean tryAcquire(String processorName) {
+        Semaphore permits = processorPermits.get(processorName);
+        return permits == null || permits.tryAcquire();
+    }
+
+    /**
+     * Reserves a slot for the given processor, waiting for one to free up if
+     * necessary. Used for later stages of a chained request, where the client
+     * has already been answered and there's nobody left to tell we're busy.
+     *
+     * @param processorName The name of the processor (e.g., "booknlp").
+     * @throws InterruptedException
+     */
+    public void acquire(String processorName) throws InterruptedException {
+        Semaphore permits = processorPermits.get(processorName);
+        if(permits != null)
+            permits.acquire();
+    }
+
+    /**
+     * Frees a slot reserved by `tryAcquire` or `acquire`.
+     *
+     * @param processorName The name of the processor (e.g., "booknlp").
+     */
+    public void release(String processorName) {
+        Semaphore permits = processorPermits.get(processorName);
+        if(permits != null)
+            permits.release();
+    }
+
+    /**
+     * Stops accepting new requests; queued requests still run.
+     */
+    public void shutdown() {
+        for(Lane lane : lanes.values())
+            lane.executor.shutdown();
+    }
+
+    /**
+     * Reads a positive integer from the settings, falling back to the given
+     * default if the key is missing or not a positive integer.
+     *
+     * @param settings The settings read from the configuration file.
+     * @param key The key to look up.
+     * @param defaultValue The value to use if the key is missing or invalid.
+     * @return The setting's value.
+     */
+    public static int getIntSetting(HashMap<String, String> settings,
+            String key, int defaultValue) {
+        if(!settings.containsKey(key))
+            return defaultValue;
+        try {
+            int value = Integer.parseInt(settings.get(key));
+            return value > 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Creates a fixed-size pool of platform threads fed by a bounded queue.
+     *
+     * @param threads The number of threads.
+     * @param queueSize The number of tasks allowed to wait for a thread.
+     * @param laneName The lane the threads belong to.
+     * @param priority The priority of each thread.
+     * @return The executor.
+     */
+    private static ExecutorService newBoundedExecutor(int threads,
+            int queueSize, final String laneName, final int priority) {
+        final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        return new ThreadPoolExecutor(threads, threads,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize),
+            new ThreadFactory() {
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = defaultFactory.newThread(new Runnable() {
+                        public void run() {
+                            currentLane.set(laneName);
+                            runnable.run();
+                        }
+                    });
+                    thread.setName(laneName +"-"+ thread.getName());
+                    thread.setPriority(priority);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor reflectively so the
+     * server still builds and runs on JVMs that predate virtual threads.
+     *
+     * @return A virtual-thread-per-task executor, or null if the running JVM
+     *         doesn't support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
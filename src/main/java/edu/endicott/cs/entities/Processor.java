@@ -12,6 +12,17 @@ public abstract class Processor {
     //     this.database = database;
     // }
 
+    /**
+     * Handles one stage of a request.
+     * 
+     * @param socket The client's socket.
+     * @param argsString The stage's arguments.
+     * @param logger The logger for this stage.
+     * @param context State shared with the other stages of the request,
+     *                including the (open) database connection. Processors
+     *                should not close the connection.
+     * @return Whether the stage completed successfully.
+     */
     public abstract boolean processRequest(EntiTiesSocket socket, String argsString, 
-        EntiTiesLogger.RequestLogger logger, EntiTiesDatabase database);
-}
\ No newline at end of file
+        EntiTiesLogger.RequestLogger logger, EntiTiesPipelineContext context);
+}
\ No newline at end of file
@@ -0,0 +1,233 @@
+// Files:   TokenBuffer.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import novels.Token;
+
+/**
+ * A list of tokens stored as parallel primitive arrays rather than one
+ * novels.Token object per token. A token's id is its index in the buffer.
+ * Sentence ids, paragraph ids, and offsets are stored as ints; the original
+ * text, word, and whitespace-after strings are stored once each in a shared
+ * string pool and referenced by index, so a common word like "the" is only
+ * kept in memory once however many times it occurs.
+ *
+ * Tokens are appended with `add` and read back by index with the getters;
+ * `getToken` builds a novels.Token for code that needs one.
+ */
+public class TokenBuffer {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private int[] sentenceIds, paragraphIds;
+    private int[] beginOffsets, endOffsets;
+    private int[] originals, words, whitespaceAfters;
+
+    private HashMap<String, Integer> poolIndex;
+    private ArrayList<String> pool;
+
+    public TokenBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of tokens to make room for at first.
+     */
+    public TokenBuffer(int capacity) {
+        capacity = Math.max(1, capacity);
+        size = 0;
+        sentenceIds = new int[capacity];
+        paragraphIds = new int[capacity];
+        beginOffsets = new int[capacity];
+        endOffsets = new int[capacity];
+        originals = new int[capacity];
+        words = new int[capacity];
+        whitespaceAfters = new int[capacity];
+        poolIndex = new HashMap<String, Integer>();
+        pool = new ArrayList<String>();
+    }
+
+    /**
+     * Appends a token.
+     *
+     * @param original The token's original text.
+     * @param word The token's (normalized) text.
+     * @param whitespaceAfter The whitespace after the token, encoded as
+     *                        BookNLP does (see Token.setWhitespaceAfter).
+     * @param sentenceId The id of the token's sentence.
+     * @param paragraphId The id of the token's paragraph.
+     * @param beginOffset The offset of the token's first character.
+     * @param endOffset The offset just past the token's last character.
+     * @return The token's id.
+     */
+    public int add(String original, String word, String whitespaceAfter,
+            int sentenceId, int paragraphId, int beginOffset, int endOffset) {
+        if(size == sentenceIds.length)
+            grow();
+
+        sentenceIds[size] = sentenceId;
+        paragraphIds[size] = paragraphId;
+        beginOffsets[size] = beginOffset;
+        endOffsets[size] = endOffset;
+        originals[size] = intern(original);
+        words[size] = intern(word);
+        whitespaceAfters[size] = intern(whitespaceAfter);
+        return size++;
+    }
+
+    /**
+     * Doubles the capacity of every array.
+     */
+    private void grow() {
+        int capacity = sentenceIds.length * 2;
+        sentenceIds = Arrays.copyOf(sentenceIds, capacity);
+        paragraphIds = Arrays.copyOf(paragraphIds, capacity);
+        beginOffsets = Arrays.copyOf(beginOffsets, capacity);
+        endOffsets = Arrays.copyOf(endOffsets, capacity);
+        originals = Arrays.copyOf(originals, capacity);
+        words = Arrays.copyOf(words, capacity);
+        whitespaceAfters = Arrays.copyOf(whitespaceAfters, capacity);
+    }
+
+    /**
+     * @param value A string.
+     * @return The string's index in the pool, adding it if it's new.
+     */
+    private int intern(String value) {
+        Integer index = poolIndex.get(value);
+        if(index == null){
+            index = pool.size();
+            pool.add(value);
+            poolIndex.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return The number of tokens.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of distinct strings in the pool.
+     */
+    public int getPoolSize() {
+        return pool.size();
+    }
+
+    /**
+     * @param index A string's index in the pool.
+     * @return The string.
+     */
+    public String getPoolString(int index) {
+        return pool.get(index);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The token's original text.
+     */
+    public String getOriginal(int tokenId) {
+        return pool.get(originals[tokenId]);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The pool index of the token's original text.
+     */
+    public int getOriginalIndex(int tokenId) {
+        return originals[tokenId];
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The token's (normalized) text.
+     */
+    public String getWord(int tokenId) {
+        return pool.get(words[tokenId]);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The pool index of the token's (normalized) text.
+     */
+    public int getWordIndex(int tokenId) {
+        return words[tokenId];
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The whitespace after the token, as BookNLP encodes it.
+     */
+    public String getWhitespaceAfter(int tokenId) {
+        return pool.get(whitespaceAfters[tokenId]);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The pool index of the whitespace after the token.
+     */
+    public int getWhitespaceAfterIndex(int tokenId) {
+        return whitespaceAfters[tokenId];
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The id of the token's sentence.
+     */
+    public int getSentenceId(int tokenId) {
+        return sentenceIds[tokenId];
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The id of the token's paragraph.
+     */
+    public int getParagraphId(int tokenId) {
+        return paragraphIds[tokenId];
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The offset of the token's first character.
+     */
+    public int getBeginOffset(int tokenId) {
+        return beginOffsets[tokenId];
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The offset just past the token's last character.
+     */
+    public int getEndOffset(int tokenId) {
+        return endOffsets[tokenId];
+    }
+
+    /**
+     * Builds a BookNLP token from the buffer, labeled the way
+     * TokenProcessor labels tokens.
+     *
+     * @param tokenId A token's id.
+     * @return A new Token.
+     */
+    public Token getToken(int tokenId) {
+        Token token = new Token();
+        token.original = getOriginal(tokenId);
+        token.word = getWord(tokenId);
+        token.sentenceID = sentenceIds[tokenId];
+        token.tokenId = tokenId;
+        token.beginOffset = beginOffsets[tokenId];
+        token.endOffset = endOffsets[tokenId];
+        token.quotation = "O";
+        token.whitespaceAfter = getWhitespaceAfter(tokenId);
+        token.p = paragraphIds[tokenId];
+        return token;
+    }
+}
@@ -0,0 +1,250 @@
+// Files:   TokenFilesWriter.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes tokens.html and tokens.json (see TokenProcessor.tokensToHTML and
+ * TokenProcessor.tokensToJSON for their formats) from a single pass over the
+ * tokens. Each token is escaped one character at a time straight into a char
+ * buffer per file, which is handed to the file's Writer whenever it fills,
+ * so no intermediate strings are created.
+ *
+ * Usage:
+ *
+ *     writer = new TokenFilesWriter(htmlOut, jsonOut);
+ *     for(int i = 0; i < tokens.size(); i++)
+ *         writer.write(i, tokens.getOriginal(i),
+ *             tokens.getWhitespaceAfter(i));
+ *     writer.close();
+ */
+public class TokenFilesWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The longest any one character can become once escaped ("&amp;").
+    private static final int MAX_ESCAPED_LENGTH = 5;
+
+    private static final char[] SPAN_START =
+        "<span class=\"token".toCharArray();
+    private static final char[] SPAN_START_END = "\">".toCharArray();
+    private static final char[] SPAN_END = "</span>".toCharArray();
+
+    private Writer htmlOut, jsonOut;
+    private char[] html, json;
+    private int htmlLength, jsonLength;
+    private boolean firstToken;
+
+    /**
+     * @param htmlOut Where to write tokens.html, or null to skip it; closed
+     *                by `close`.
+     * @param jsonOut Where to write tokens.json, or null to skip it; closed
+     *                by `close`.
+     */
+    public TokenFilesWriter(Writer htmlOut, Writer jsonOut) {
+        this.htmlOut = htmlOut;
+        this.jsonOut = jsonOut;
+        html = htmlOut == null ? null : new char[BUFFER_SIZE];
+        json = jsonOut == null ? null : new char[BUFFER_SIZE];
+        htmlLength = 0;
+        jsonLength = 0;
+        firstToken = true;
+        if(json != null)
+            json[jsonLength++] = '[';
+    }
+
+    /**
+     * Writes the next token to both files.
+     *
+     * @param tokenId The token's id.
+     * @param original The token's original text.
+     * @param whitespaceAfter The whitespace after the token, encoded as
+     *                        BookNLP does (N, S, and T for newline, space,
+     *                        and tab).
+     * @throws IOException
+     */
+    public void write(int tokenId, String original, String whitespaceAfter)
+            throws IOException {
+        if(html != null)
+            writeHTML(tokenId, original, whitespaceAfter);
+        if(json != null)
+            writeJSON(original, whitespaceAfter);
+        firstToken = false;
+    }
+
+    /**
+     * Appends a token's span (and the whitespace after it) to tokens.html.
+     */
+    private void writeHTML(int tokenId, String original,
+            String whitespaceAfter) throws IOException {
+        ensureHTMLRoom(SPAN_START.length + 11 + SPAN_START_END.length);
+        htmlLength = append(html, htmlLength, SPAN_START);
+        htmlLength = appendInt(html, htmlLength, tokenId);
+        htmlLength = append(html, htmlLength, SPAN_START_END);
+
+        int length = original.length();
+        for(int i = 0; i < length; i++){
+            ensureHTMLRoom(MAX_ESCAPED_LENGTH);
+            char c = original.charAt(i);
+            switch(c){
+                case '&':
+                    html[htmlLength++] = '&'; html[htmlLength++] = 'a';
+                    html[htmlLength++] = 'm'; html[htmlLength++] = 'p';
+                    html[htmlLength++] = ';';
+                    break;
+                case '<':
+                    html[htmlLength++] = '&'; html[htmlLength++] = 'l';
+                    html[htmlLength++] = 't'; html[htmlLength++] = ';';
+                    break;
+                case '>':
+                    html[htmlLength++] = '&'; html[htmlLength++] = 'g';
+                    html[htmlLength++] = 't'; html[htmlLength++] = ';';
+                    break;
+                default:
+                    html[htmlLength++] = c;
+            }
+        }
+
+        ensureHTMLRoom(SPAN_END.length);
+        htmlLength = append(html, htmlLength, SPAN_END);
+
+        length = whitespaceAfter.length();
+        for(int i = 0; i < length; i++){
+            ensureHTMLRoom(1);
+            char c = whitespaceAfter.charAt(i);
+            switch(c){
+                case 'N': html[htmlLength++] = '\n'; break;
+                case 'S': html[htmlLength++] = ' '; break;
+                case 'T': html[htmlLength++] = '\t'; break;
+                default:  html[htmlLength++] = c;
+            }
+        }
+    }
+
+    /**
+     * Appends a token's [text, whitespace] pair to tokens.json.
+     */
+    private void writeJSON(String original, String whitespaceAfter)
+            throws IOException {
+        ensureJSONRoom(3);
+        if(!firstToken)
+            json[jsonLength++] = ',';
+        json[jsonLength++] = '[';
+        json[jsonLength++] = '"';
+
+        // Only quotes and backslashes are escaped in the token text.
+        int length = original.length();
+        for(int i = 0; i < length; i++){
+            ensureJSONRoom(2);
+            char c = original.charAt(i);
+            if(c == '\\' || c == '"')
+                json[jsonLength++] = '\\';
+            json[jsonLength++] = c;
+        }
+
+        ensureJSONRoom(3);
+        json[jsonLength++] = '"';
+        json[jsonLength++] = ',';
+        json[jsonLength++] = '"';
+
+        length = whitespaceAfter.length();
+        for(int i = 0; i < length; i++){
+            ensureJSONRoom(2);
+            char c = whitespaceAfter.charAt(i);
+            switch(c){
+                case 'N':
+                    json[jsonLength++] = '\\'; json[jsonLength++] = 'n';
+                    break;
+                case 'S':
+                    json[jsonLength++] = ' ';
+                    break;
+                case 'T':
+                    json[jsonLength++] = '\\'; json[jsonLength++] = 't';
+                    break;
+                default:
+                    json[jsonLength++] = c;
+            }
+        }
+
+        ensureJSONRoom(2);
+        json[jsonLength++] = '"';
+        json[jsonLength++] = ']';
+    }
+
+    /**
+     * Hands the HTML buffer to its Writer if it has fewer than `room` free
+     * characters.
+     */
+    private void ensureHTMLRoom(int room) throws IOException {
+        if(htmlLength + room > html.length){
+            htmlOut.write(html, 0, htmlLength);
+            htmlLength = 0;
+        }
+    }
+
+    /**
+     * Hands the JSON buffer to its Writer if it has fewer than `room` free
+     * characters.
+     */
+    private void ensureJSONRoom(int room) throws IOException {
+        if(jsonLength + room > json.length){
+            jsonOut.write(json, 0, jsonLength);
+            jsonLength = 0;
+        }
+    }
+
+    /**
+     * Copies `chars` into `buffer` at `offset`.
+     *
+     * @return The offset just past the copied characters.
+     */
+    private static int append(char[] buffer, int offset, char[] chars) {
+        System.arraycopy(chars, 0, buffer, offset, chars.length);
+        return offset + chars.length;
+    }
+
+    /**
+     * Writes the decimal digits of a non-negative integer into `buffer` at
+     * `offset`.
+     *
+     * @return The offset just past the digits.
+     */
+    private static int appendInt(char[] buffer, int offset, int value) {
+        int digits = 1;
+        for(int rest = value / 10; rest > 0; rest /= 10)
+            digits++;
+        for(int i = offset + digits - 1; i >= offset; i--){
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+
+    /**
+     * Finishes both files, writes out what's left in the buffers, and closes
+     * the Writers.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            if(html != null)
+                htmlOut.write(html, 0, htmlLength);
+            if(json != null){
+                ensureJSONRoom(1);
+                json[jsonLength++] = ']';
+                jsonOut.write(json, 0, jsonLength);
+            }
+        } finally {
+            if(htmlOut != null)
+                htmlOut.close();
+            if(jsonOut != null)
+                jsonOut.close();
+        }
+        html = null;
+        json = null;
+    }
+}
@@ -14,8 +14,8 @@ import java.io.IOException;
 import java.net.Socket;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Properties;
 
 import java.sql.SQLException;
 
@@ -41,6 +41,13 @@ public class TokenProcessor extends Processor {
     private static final String TOKENS_HTML_FILE_NAME = "tokens.html";
     private static final String TOKENS_JSON_FILE_NAME = "tokens.json";
 
+    // How much of a text to look at when deciding whether its newlines
+    // separate paragraphs.
+    static final int PARAGRAPH_SAMPLE_CHARACTERS = 1000000;
+
+    // Chunks more than this many times the target size end at any newline.
+    private static final int MAX_CHUNK_FACTOR = 8;
+
     /**
      * Handles an incoming request for tokenization. A request should consist
      * of the following tab-delimited columns:
@@ -56,6 +63,9 @@ public class TokenProcessor extends Processor {
      * files in <directory>/:
      * 
      *  - tokens.json -- token information (JSON format)
+     *  - tokens.html -- the text with each token in a span
+     *  - tokens.bin  -- token information in a binary, memory-mappable 
+     *                   format for reading ranges of tokens (see TokenStore)
      * 
      * TODO describe the format of this file.
      * 
@@ -70,15 +80,15 @@ public class TokenProcessor extends Processor {
      * and the socket closed.
      */
     public boolean processRequest(EntiTiesSocket socket, String argsString, 
-        EntiTiesLogger.RequestLogger logger, EntiTiesDatabase database) {
+        EntiTiesLogger.RequestLogger logger, EntiTiesPipelineContext context) {
 
-        String text;
         EntiTiesFileManager fileManager;
         String directoryPath;
         int textId = -1;
         File bookFile, tokensHTMLFile, tokensJSONFile;
         this.logger = logger;
-        ArrayList<Token> tokens;
+        database = context.getDatabase();
+        TokenBuffer tokens;
         boolean completedSuccessfully = false;
 
         try {
@@ -118,8 +128,8 @@ public class TokenProcessor extends Processor {
                 return false;
             }
 
-            // Check that we can open the database.
-            if(!database.openConnection()){
+            // Check that we have a database connection.
+            if(!database.isConnected()){
                 error(socket.out, "Error: could not establish a database "+
                             "connection.");
                 return false;
@@ -132,12 +142,10 @@ public class TokenProcessor extends Processor {
                     error(socket.out, 
                         "Error: no text with this id exists in "+
                         "the database.");
-                    database.close();
                     return false;
                 case ERROR_QUERYING_DB:
                     error(socket.out, 
                         "Error: couldn't query the metadata table.");
-                    database.close();
                     return false;
                 default:
                     break;
@@ -145,15 +153,17 @@ public class TokenProcessor extends Processor {
 
             logger.log("Successfully parsed and validated arguments.");
 
-            // Read in the text's contents and tokenize it.
-            text = Util.readText(bookFile.getPath());
-            tokens = TokenProcessor.process(text);
+            // Tokenize the text a chunk at a time, straight from the file.
+            tokens = TokenProcessor.process(bookFile);
 
             // Output the entity info.
-            logger.log("Converting tokens to HTML...");
-            tokensToHTML(tokens, tokensHTMLFile);
-            logger.log("Converting tokens to JSON...");
-            tokensToJSON(tokens, tokensJSONFile);
+            logger.log("Converting tokens to HTML and JSON...");
+            writeTokenFiles(tokens, tokensHTMLFile, tokensJSONFile);
+            logger.log("Writing binary token file...");
+            File tokenStoreFile = fileManager.getTextFile(
+                TokenStore.FILE_NAME);
+            writeTokenStore(tokens, tokenStoreFile);
+            TokenStoreCache.invalidate(tokenStoreFile);
             if(!database.setTextTokenizationSuccessfulFlags(textId))
                 logger.log("Error: unable to update tokenization status "+
                     "in the database.");
@@ -190,13 +200,6 @@ public class TokenProcessor extends Processor {
                 logger.log("Couldn't close a socket, what's going on?");
                 e.printStackTrace();
                 completedSuccessfully = false;
-            } finally {
-                try{
-                    database.close();
-                } catch (SQLException e) {
-                    logger.log("Couldn't close database connection.");
-                    completedSuccessfully = false;
-                }
             }
             logger.log("Connection closed");
         }
@@ -214,106 +217,169 @@ public class TokenProcessor extends Processor {
      * See: https://github.com/dbamman/book-nlp/blob/master/src/novels/annotators/SyntaxAnnotator.java
      * 
      * @param doc The text to tokenize.
-     * @return A list of BookNLP tokens.
+     * @return The tokens.
      */
-    public static ArrayList<Token> process(String doc) throws Exception {
+    public static TokenBuffer process(String doc) throws Exception {
+        ChunkTokenizer tokenizer = new ChunkTokenizer(
+            hasNewlineParagraphs(doc));
+        tokenizer.tokenize(doc, 0);
+        return tokenizer.tokens;
+    }
 
-        /*
-         * First see if newlines separate paragraphs or if they show up in the
-         * middle of lines.
-         */
-        String[] sents = doc.split("\n");
+    /**
+     * Tokenizes a text file without reading all of it into memory. The file
+     * is read (see EntiTiesTextReader) and tokenized in chunks of about 
+     * `tokenizer_chunk_characters` characters that end at blank lines, which
+     * the tokenizer always treats as sentence (and paragraph) breaks, so the
+     * tokens are the same as those `process(Util.readText(...))` produces.
+     * Whether newlines separate paragraphs is decided from the start of the
+     * text.
+     * 
+     * @param textFile The text file (UTF-8) to tokenize.
+     * @return The tokens.
+     */
+    public static TokenBuffer process(File textFile) throws Exception {
+        EntiTiesTextReader reader = new EntiTiesTextReader(textFile);
+        try {
+            ChunkTokenizer tokenizer = new ChunkTokenizer(hasNewlineParagraphs(
+                reader.peek(PARAGRAPH_SAMPLE_CHARACTERS)));
+
+            int chunkCharacters = EntiTiesTokenizerPool.getChunkCharacters();
+            int maxChunkCharacters = 
+                chunkCharacters > Integer.MAX_VALUE / MAX_CHUNK_FACTOR ?
+                    Integer.MAX_VALUE : chunkCharacters * MAX_CHUNK_FACTOR;
+            String chunk;
+            while((chunk = reader.nextChunk(
+                    chunkCharacters, maxChunkCharacters)) != null)
+                tokenizer.tokenize(chunk, reader.getChunkStart());
+
+            return tokenizer.tokens;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Sees if newlines separate paragraphs or if they show up in the middle
+     * of lines: they're taken to separate paragraphs if most lines end in 
+     * punctuation.
+     * 
+     * @param text The text (or the start of it) to check.
+     * @return Whether newlines separate paragraphs.
+     */
+    static boolean hasNewlineParagraphs(String text) {
         float punctCount = 0;
         float nonPuntCount = 0;
-        boolean newlineParagraphs = false;
-        for (String sent : sents) {
-            if (sent.length() > 0) {
-                String last = sent.substring(sent.length() - 1);
-                if (last.equals(".") || last.equals("\"") || last.equals(":")
-                        || last.equals("?") || last.equals("!")) {
+        int lineStart = 0;
+        while(lineStart < text.length()){
+            int lineEnd = text.indexOf('\n', lineStart);
+            if(lineEnd == -1)
+                lineEnd = text.length();
+            if(lineEnd > lineStart){
+                char last = text.charAt(lineEnd - 1);
+                if(last == '.' || last == '"' || last == ':' || 
+                        last == '?' || last == '!'){
                     punctCount++;
                 } else {
                     nonPuntCount++;
                 }
             }
+            lineStart = lineEnd + 1;
         }
 
-        if (punctCount / (punctCount + nonPuntCount) > .5) {
-            newlineParagraphs = true;
-        }
-
-        ArrayList<Token> allWords = new ArrayList<Token>();
-
-        Annotation document = new Annotation(doc);
-
-        System.err.println("Tagging and parsing...");
-        Properties props = new Properties();
-                props.put("annotators", "tokenize, ssplit");
-                // props.put("annotators", "tokenize, ssplit, pos, lemma, ner");
+        return punctCount / (punctCount + nonPuntCount) > .5;
+    }
 
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-        pipeline.annotate(document);
+    /**
+     * Tokenizes a text one chunk at a time into a TokenBuffer, numbering
+     * tokens, sentences, and paragraphs from the start of the text.
+     */
+    private static class ChunkTokenizer {
+        private boolean newlineParagraphs;
+        private TokenBuffer tokens;
+        private HashMap<String, String> encodedWhitespace;
+        private int s, p;
+
+        /**
+         * @param newlineParagraphs Whether newlines separate paragraphs.
+         */
+        public ChunkTokenizer(boolean newlineParagraphs) {
+            this.newlineParagraphs = newlineParagraphs;
+            tokens = new TokenBuffer();
+            encodedWhitespace = new HashMap<String, String>();
+            s = 0;
+            p = 0;
+        }
 
-        int s = 0;
-        int t = 0;
-        int p = 0;
+        /**
+         * Tokenizes the next chunk of the text and adds its tokens.
+         * 
+         * @param chunk The chunk, which must end at a sentence break.
+         * @param offsetBase The offset of the chunk within the text.
+         */
+        public void tokenize(String chunk, int offsetBase) throws Exception {
+            Annotation document = new Annotation(chunk);
 
-        List<CoreMap> sentences = document.get(SentencesAnnotation.class);
-        int totalSentences = sentences.size() - 1;
+            System.err.println("Tagging and parsing...");
 
-        ArrayList<ArrayList<Token>> sentenceannos = new ArrayList<ArrayList<Token>>();
+            // Use one of the shared, already-warm pipelines rather than 
+            // building a new one for each text.
+            StanfordCoreNLP pipeline = EntiTiesTokenizerPool.borrow();
+            try {
+                pipeline.annotate(document);
+            } finally {
+                EntiTiesTokenizerPool.giveBack(pipeline);
+            }
 
-        for (int cm_indx = 0; cm_indx < sentences.size(); cm_indx++) {
-            CoreMap sentence = sentences.get(cm_indx);
+            List<CoreMap> sentences = document.get(SentencesAnnotation.class);
+            for(CoreMap sentence : sentences){
+                for(CoreLabel token : sentence.get(TokensAnnotation.class)){
+                    String whitespaceAfter = token.after();
 
-            if (s % 100 == 0 || s == totalSentences) {
-                double ratio = ((double) s) / totalSentences;
-                System.err.print(String.format(
-                        "\t%.3f (%s out of %s) processed\r", ratio, s,
-                        totalSentences));
-            }
+                    tokens.add(token.originalText(), 
+                        token.get(TextAnnotation.class), 
+                        encodeWhitespace(whitespaceAfter), s, p,
+                        offsetBase + token.beginPosition(),
+                        offsetBase + token.endPosition());
 
-            ArrayList<Token> annos = new ArrayList<Token>();
-
-            for (CoreLabel token : sentence.get(TokensAnnotation.class)) {
-
-                String word = token.get(TextAnnotation.class);
-                // String pos = token.get(PartOfSpeechAnnotation.class);
-                // String lemma = token.get(LemmaAnnotation.class);
-                // String ne = token.get(NamedEntityTagAnnotation.class);
-                int beginOffset = token.beginPosition();
-                int endOffset = token.endPosition();
-                String whitespaceAfter = token.after();
-                String original = token.originalText();
-
-                Token anno = new Token();
-                anno.original = original;
-                anno.word = word;
-                // anno.pos = pos;
-                // anno.lemma = lemma;
-                // anno.ner = ne;
-                anno.sentenceID = s;
-                anno.tokenId = t;
-                anno.beginOffset = beginOffset;
-                anno.endOffset = endOffset;
-                anno.quotation = "O";
-                anno.setWhitespaceAfter(whitespaceAfter);
-                anno.p = p;
-                annos.add(anno);
-                allWords.add(anno);
-                t++;
-                whitespaceAfter = anno.whitespaceAfter;
-
-                if (token.after().matches("\\n{2,}")
-                        || (token.after().matches("\\n") && newlineParagraphs)) {
-                    p++;
+                    if(isParagraphBreak(whitespaceAfter))
+                        p++;
                 }
+                s++;
             }
+            System.err.print(String.format("\t%s sentences processed\r", s));
+        }
 
-            sentenceannos.add(annos);
+        /**
+         * @param whitespace The whitespace after a token.
+         * @return The whitespace encoded as BookNLP's Token does; each
+         *         distinct whitespace string is only encoded once.
+         */
+        private String encodeWhitespace(String whitespace) {
+            String encoded = encodedWhitespace.get(whitespace);
+            if(encoded == null){
+                Token token = new Token();
+                token.setWhitespaceAfter(whitespace);
+                encoded = token.whitespaceAfter;
+                encodedWhitespace.put(whitespace, encoded);
+            }
+            return encoded;
         }
 
-        return allWords;
+        /**
+         * @param whitespace The whitespace after a token.
+         * @return Whether the whitespace ends a paragraph: two or more
+         *         newlines, or one if newlines separate paragraphs.
+         */
+        private boolean isParagraphBreak(String whitespace) {
+            int length = whitespace.length();
+            if(length == 0)
+                return false;
+            for(int i = 0; i < length; i++)
+                if(whitespace.charAt(i) != '\n')
+                    return false;
+            return length >= 2 || newlineParagraphs;
+        }
     }
 
     /**
@@ -326,20 +392,9 @@ public class TokenProcessor extends Processor {
      * @param outputFile The file to write the HTML to.
      * @throws IOException
      */
-    public static void tokensToHTML(ArrayList<Token> tokens, File outputFile) 
+    public static void tokensToHTML(TokenBuffer tokens, File outputFile) 
     throws IOException {
-
-        PrintWriter out = new PrintWriter(outputFile);
-        for(Token token : tokens){
-            out.print("<span class=\"token"+ token.tokenId +"\">"+
-                token.original.replaceAll("&", "&amp;")
-                              .replaceAll("<", "&lt;")
-                              .replaceAll(">", "&gt;") +"</span>" +
-                token.whitespaceAfter.replaceAll("N", "\n")
-                                     .replaceAll("S", " ")
-                                     .replaceAll("T", "\t"));
-        }
-        out.close();
+        writeTokenFiles(tokens, outputFile, null);
     }
 
     /**
@@ -352,30 +407,71 @@ public class TokenProcessor extends Processor {
      * @param outputFile The file to write the JSON to.
      * @throws IOException
      */
-    public static void tokensToJSON(ArrayList<Token> tokens, File outputFile) 
+    public static void tokensToJSON(TokenBuffer tokens, File outputFile) 
     throws IOException {
+        writeTokenFiles(tokens, null, outputFile);
+    }
 
-        PrintWriter out = new PrintWriter(outputFile);
-        boolean first = true;
-        out.print("[");
-        for(Token token : tokens){
-            if(!first){
-                out.print(",");
-            } else {
-                first = false;
+    /**
+     * Writes the HTML (see `tokensToHTML`) and JSON (see `tokensToJSON`)
+     * versions of a list of tokens in one pass over the list. Each file is
+     * written to a temporary file first and renamed once it's complete.
+     * 
+     * @param tokens The list of tokens to write.
+     * @param htmlFile The file to write the HTML to, or null to skip it.
+     * @param jsonFile The file to write the JSON to, or null to skip it.
+     * @throws IOException
+     */
+    public static void writeTokenFiles(TokenBuffer tokens, File htmlFile,
+        File jsonFile) throws IOException {
+
+        File htmlTempFile = htmlFile == null ? null :
+            EntiTiesArtifactWriter.getTempFile(htmlFile);
+        File jsonTempFile = jsonFile == null ? null :
+            EntiTiesArtifactWriter.getTempFile(jsonFile);
+        try {
+            TokenFilesWriter out = new TokenFilesWriter(
+                htmlFile == null ? null : 
+                    EntiTiesArtifactWriter.openWriter(htmlTempFile),
+                jsonFile == null ? null :
+                    EntiTiesArtifactWriter.openWriter(jsonTempFile));
+            try {
+                for(int i = 0; i < tokens.size(); i++)
+                    out.write(i, tokens.getOriginal(i), 
+                        tokens.getWhitespaceAfter(i));
+            } finally {
+                out.close();
             }
-            out.print("[\""+
-                token.original
-                    // .replaceAll("\\[", "\\\\[")
-                    // .replaceAll("\\]", "\\\\]")
-                    .replaceAll("\\\\", "\\\\\\\\")
-                    .replaceAll("\"", "\\\\\"") +"\",\""+
-                token.whitespaceAfter.replaceAll("N", "\\\\n")
-                                     .replaceAll("S", " ")
-                                     .replaceAll("T", "\\\\t") +"\"]");
+
+            if(htmlFile != null)
+                EntiTiesArtifactWriter.commit(htmlTempFile, htmlFile);
+            if(jsonFile != null)
+                EntiTiesArtifactWriter.commit(jsonTempFile, jsonFile);
+        } finally {
+            if(htmlTempFile != null)
+                htmlTempFile.delete();
+            if(jsonTempFile != null)
+                jsonTempFile.delete();
         }
-        out.print("]");
-        out.close();
+    }
+
+    /**
+     * Writes a list of tokens to a binary token file (see TokenStore), via a
+     * temporary file that's renamed once it's complete.
+     * 
+     * @param tokens The list of tokens to write.
+     * @param outputFile The file to write.
+     * @throws Exception
+     */
+    public static void writeTokenStore(final TokenBuffer tokens, 
+        File outputFile) throws Exception {
+
+        EntiTiesArtifactWriter.writeFile(outputFile, 
+            new EntiTiesArtifactWriter.FileContent() {
+                public void writeTo(File file) throws IOException {
+                    TokenStore.write(tokens, file);
+                }
+            });
     }
 
     /**
@@ -395,12 +491,12 @@ public class TokenProcessor extends Processor {
         String text = Util.readText(args[0]);
         text = Util.filterGutenberg(text);
         // output.print(text);
-        ArrayList<Token> tokens = TokenProcessor.process(text);
-        for(Token token : tokens){
-            output.println(token);
+        TokenBuffer tokens = TokenProcessor.process(text);
+        for(int i = 0; i < tokens.size(); i++){
+            output.println(tokens.getToken(i));
         }
         output.close();
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,201 @@
+// Files:   TokenRangeProcessor.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Serves a range of a text's tokens, so a client can page through a long
+ * text without downloading all of tokens.json. Tokens are read from the
+ * text's tokens.bin (see TokenStore) through TokenStoreCache.
+ *
+ * @see TokenProcessor
+ */
+public class TokenRangeProcessor extends Processor {
+    public static final String TOKEN_UNIT = "token";
+    public static final String SENTENCE_UNIT = "sentence";
+    public static final String PARAGRAPH_UNIT = "paragraph";
+
+    /**
+     * The most tokens sent in one reply; longer ranges are cut short.
+     */
+    public static final int MAX_RANGE_TOKENS = 5000;
+
+    /**
+     * Handles an incoming request for a range of tokens. A request should
+     * consist of the following tab-delimited columns:
+     *
+     *  - text id
+     *  - text directory (where the text's files are stored)
+     *  - start (the first token, sentence, or paragraph to include)
+     *  - end (the token, sentence, or paragraph to stop before; ranges that
+     *    run past the end of the text, or span more than MAX_RANGE_TOKENS
+     *    tokens, are cut short)
+     *  - unit (optional; token, sentence, or paragraph; defaults to token)
+     *
+     * On success, a single line with a JSON object is printed to the socket
+     * and the socket is closed. The object has these fields:
+     *
+     *  - success         -- true
+     *  - start           -- the id of the first token included
+     *  - end             -- the id just past the last token included (the
+     *                       place to start the next request, if the range
+     *                       was cut short)
+     *  - token_count     -- the number of tokens in the text
+     *  - sentence_count  -- the number of sentences in the text
+     *  - paragraph_count -- the number of paragraphs in the text
+     *  - tokens          -- the tokens, in the same format as tokens.json
+     *
+     * If the text hasn't got a tokens.bin (e.g., it was tokenized before
+     * they were written), one is built in the background (see
+     * TokenStoreCache.startBuild) and this line is sent instead:
+     *
+     *     {"success":false,"ready":false,"error":"..."}
+     *
+     * The client should try again shortly.
+     *
+     * In the event of an error, the error is printed to the socket and the
+     * socket closed.
+     */
+    public boolean processRequest(EntiTiesSocket socket, String argsString,
+            EntiTiesLogger.RequestLogger logger,
+            EntiTiesPipelineContext context) {
+
+        EntiTiesFileManager fileManager;
+        int textId, start, end;
+        String unit = TOKEN_UNIT;
+        this.logger = logger;
+        boolean completedSuccessfully = false;
+
+        try {
+            // Reads the incoming arguments.
+            String[] args = argsString.split("\t");
+
+            logger.log("Message received:");
+            logger.log(argsString);
+
+            if(args.length != 4 && args.length != 5){
+                error(socket.out, "Error: there should be 4 or 5 tab"+
+                    "-delimited arguments (text id, text directory, start, "+
+                    "end, [unit]), not "+ (args.length));
+                return false;
+            }
+
+            // Parse the arguments.
+            try {
+                textId = Integer.parseInt(args[0]);
+                start = Integer.parseInt(args[2]);
+                end = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                error(socket.out, "Error: the text id, start, and end must "+
+                    "be integers.");
+                return false;
+            }
+            if(args.length == 5)
+                unit = args[4];
+            if(!unit.equals(TOKEN_UNIT) && !unit.equals(SENTENCE_UNIT) &&
+                    !unit.equals(PARAGRAPH_UNIT)){
+                error(socket.out, "Error: unrecognized unit '"+ unit +
+                    "'. Valid units: "+ TOKEN_UNIT +", "+ SENTENCE_UNIT +
+                    ", "+ PARAGRAPH_UNIT +".");
+                return false;
+            }
+            if(start < 0 || end < start){
+                error(socket.out, "Error: invalid range "+ start +"-"+ end +
+                    ".");
+                return false;
+            }
+
+            // Find the text's token file.
+            fileManager = new EntiTiesFileManager(args[1], textId);
+            File storeFile = fileManager.getTextFile(TokenStore.FILE_NAME);
+            if(!storeFile.exists()){
+                File bookFile = fileManager.getTextFile("original.txt");
+                if(!bookFile.exists()){
+                    error(socket.out, "Error: File doesn't exist: "+
+                        bookFile.getPath() +".");
+                    return false;
+                }
+                if(TokenStoreCache.startBuild(bookFile, storeFile, logger)){
+                    socket.out.println("{\"success\":false,\"ready\":false,"+
+                        "\"error\":\"The text's tokens are being prepared; "+
+                        "please try again shortly.\"}");
+                    logger.log("No token file yet; replied not ready.");
+                    socket.close();
+                    return true;
+                }
+            }
+            TokenStore store = TokenStoreCache.get(storeFile);
+
+            // Convert the range to tokens.
+            int tokenStart = toTokenId(store, unit, start);
+            int tokenEnd = Math.min(toTokenId(store, unit, end),
+                tokenStart + MAX_RANGE_TOKENS);
+
+            // Send the tokens.
+            PrintWriter out = socket.out;
+            out.print("{\"success\":true,\"start\":"+ tokenStart +
+                ",\"end\":"+ tokenEnd +
+                ",\"token_count\":"+ store.getTokenCount() +
+                ",\"sentence_count\":"+ store.getSentenceCount() +
+                ",\"paragraph_count\":"+ store.getParagraphCount() +
+                ",\"tokens\":");
+            store.writeJSON(tokenStart, tokenEnd, out);
+            out.println("}");
+            logger.log("Sent tokens "+ tokenStart +"-"+ tokenEnd +".");
+            socket.close();
+
+            completedSuccessfully = true;
+        } catch (Exception e) {
+            logger.log("Caught Exception: "+ e);
+            e.printStackTrace();
+        } finally {
+            try {
+                if(!socket.isClosed())
+                    socket.close();
+
+            } catch (IOException e) {
+                logger.log("Couldn't close a socket, what's going on?");
+                e.printStackTrace();
+                completedSuccessfully = false;
+            }
+            logger.log("Connection closed");
+        }
+
+        return completedSuccessfully;
+    }
+
+    /**
+     * Finds the token that starts the given token, sentence, or paragraph.
+     * Positions past the end of the text map to the end of the text.
+     *
+     * @param store The text's tokens.
+     * @param unit The unit `position` is in.
+     * @param position A token, sentence, or paragraph id.
+     * @return The id of the first token at `position`, or the number of
+     *         tokens.
+     */
+    private static int toTokenId(TokenStore store, String unit, int position){
+        if(unit.equals(SENTENCE_UNIT))
+            return store.getSentenceStart(
+                Math.min(position, store.getSentenceCount()));
+        if(unit.equals(PARAGRAPH_UNIT))
+            return store.getParagraphStart(
+                Math.min(position, store.getParagraphCount()));
+        return Math.min(position, store.getTokenCount());
+    }
+
+    /**
+     * Sends an error to the given output stream and logs it.
+     *
+     * @param out The stream to write to.
+     * @param error The error message to print.
+     */
+    public void error(PrintWriter out, String error) throws IOException {
+        out.println(error);
+        logger.log(error);
+    }
+}
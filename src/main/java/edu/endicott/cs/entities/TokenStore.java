@@ -0,0 +1,395 @@
+// Files:   TokenStore.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A text's tokens in a compact binary file (tokens.bin) that's read through
+ * a memory-mapped view, so any range of tokens can be read without reading
+ * or parsing the rest. `write` creates the file from a TokenBuffer; `open`
+ * maps an existing one.
+ *
+ * The file (all numbers big-endian) consists of:
+ *
+ *  - a header: the magic number, the format version, the number of tokens,
+ *    sentences, paragraphs, and strings (ints), and the byte offsets of each
+ *    of the following sections (longs)
+ *  - the token table: one fixed-width record per token, in token id order:
+ *    begin offset, end offset, sentence id, paragraph id, and the string
+ *    ids of the original text, word, and whitespace after (ints)
+ *  - the sentence index: the id of each sentence's first token, followed by
+ *    the number of tokens (ints)
+ *  - the paragraph index: the same, for paragraphs
+ *  - the string index: the byte offset of each string in the string heap,
+ *    followed by the heap's length (longs)
+ *  - the string heap: every distinct string, UTF-8 encoded
+ *
+ * Reads don't move any buffer's position, so one TokenStore can be shared
+ * by any number of threads.
+ */
+public class TokenStore implements Closeable {
+    public static final String FILE_NAME = "tokens.bin";
+
+    private static final int MAGIC = 0x45545442; // "ETTB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4 + 5 * 8;
+    private static final int RECORD_SIZE = 7 * 4;
+
+    // Field offsets within a token record.
+    private static final int BEGIN_OFFSET = 0;
+    private static final int END_OFFSET = 4;
+    private static final int SENTENCE_ID = 8;
+    private static final int PARAGRAPH_ID = 12;
+    private static final int ORIGINAL = 16;
+    private static final int WORD = 20;
+    private static final int WHITESPACE_AFTER = 24;
+
+    private MappedByteBuffer data;
+    private int tokenCount, sentenceCount, paragraphCount, stringCount;
+    private int tokensStart, sentencesStart, paragraphsStart;
+    private int stringIndexStart, stringHeapStart;
+
+    /**
+     * Maps a token file. The mapping stays valid after the file is closed,
+     * so no file handle is held open.
+     *
+     * @param file The file (see `write`).
+     * @throws IOException If the file can't be read or isn't a token file.
+     */
+    private TokenStore(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.READ);
+        try {
+            if(channel.size() < HEADER_SIZE ||
+                    channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file.getPath() +
+                    " isn't a token file (size "+ channel.size() +").");
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+
+            if(data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+                throw new IOException(file.getPath() +
+                    " isn't a version "+ VERSION +" token file.");
+            tokenCount = data.getInt(8);
+            sentenceCount = data.getInt(12);
+            paragraphCount = data.getInt(16);
+            stringCount = data.getInt(20);
+            tokensStart = (int) data.getLong(24);
+            sentencesStart = (int) data.getLong(32);
+            paragraphsStart = (int) data.getLong(40);
+            stringIndexStart = (int) data.getLong(48);
+            stringHeapStart = (int) data.getLong(56);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a token file.
+     *
+     * @param file The file (see `write`).
+     * @return The token store.
+     * @throws IOException If the file can't be read or isn't a token file.
+     */
+    public static TokenStore open(File file) throws IOException {
+        return new TokenStore(file);
+    }
+
+    /**
+     * Writes tokens to a token file.
+     *
+     * @param tokens The tokens to write.
+     * @param file The file to write.
+     * @throws IOException
+     */
+    public static void write(TokenBuffer tokens, File file)
+            throws IOException {
+        int tokenCount = tokens.size();
+        int[] sentenceStarts = findStarts(tokens, true);
+        int[] paragraphStarts = findStarts(tokens, false);
+
+        int stringCount = tokens.getPoolSize();
+        byte[][] strings = new byte[stringCount][];
+        long heapLength = 0;
+        for(int i = 0; i < stringCount; i++){
+            strings[i] = tokens.getPoolString(i).getBytes(
+                StandardCharsets.UTF_8);
+            heapLength += strings[i].length;
+        }
+
+        long tokensStart = HEADER_SIZE;
+        long sentencesStart = tokensStart + (long) tokenCount * RECORD_SIZE;
+        long paragraphsStart = sentencesStart + 4L * sentenceStarts.length;
+        long stringIndexStart = paragraphsStart + 4L * paragraphStarts.length;
+        long stringHeapStart = stringIndexStart + 8L * (stringCount + 1);
+        if(stringHeapStart + heapLength > Integer.MAX_VALUE)
+            throw new IOException("Too many tokens for a token file.");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tokenCount);
+            out.writeInt(sentenceStarts.length - 1);
+            out.writeInt(paragraphStarts.length - 1);
+            out.writeInt(stringCount);
+            out.writeLong(tokensStart);
+            out.writeLong(sentencesStart);
+            out.writeLong(paragraphsStart);
+            out.writeLong(stringIndexStart);
+            out.writeLong(stringHeapStart);
+
+            for(int i = 0; i < tokenCount; i++){
+                out.writeInt(tokens.getBeginOffset(i));
+                out.writeInt(tokens.getEndOffset(i));
+                out.writeInt(tokens.getSentenceId(i));
+                out.writeInt(tokens.getParagraphId(i));
+                out.writeInt(tokens.getOriginalIndex(i));
+                out.writeInt(tokens.getWordIndex(i));
+                out.writeInt(tokens.getWhitespaceAfterIndex(i));
+            }
+            for(int start : sentenceStarts)
+                out.writeInt(start);
+            for(int start : paragraphStarts)
+                out.writeInt(start);
+
+            long stringOffset = 0;
+            for(byte[] string : strings){
+                out.writeLong(stringOffset);
+                stringOffset += string.length;
+            }
+            out.writeLong(stringOffset);
+            for(byte[] string : strings)
+                out.write(string);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds the first token of each sentence or paragraph. Ids are assumed to
+     * start at 0 and never decrease; an id with no tokens starts where the
+     * next id does.
+     *
+     * @param tokens The tokens.
+     * @param sentences True for sentences, false for paragraphs.
+     * @return The id of the first token of each sentence or paragraph,
+     *         followed by the number of tokens.
+     */
+    private static int[] findStarts(TokenBuffer tokens, boolean sentences) {
+        int tokenCount = tokens.size();
+        int count = tokenCount == 0 ? 0 : 1 + (sentences ?
+            tokens.getSentenceId(tokenCount - 1) :
+            tokens.getParagraphId(tokenCount - 1));
+        int[] starts = new int[count + 1];
+
+        int next = 0;
+        for(int i = 0; i < tokenCount; i++){
+            int id = sentences ? tokens.getSentenceId(i) :
+                tokens.getParagraphId(i);
+            while(next <= id)
+                starts[next++] = i;
+        }
+        while(next <= count)
+            starts[next++] = tokenCount;
+        return starts;
+    }
+
+    /**
+     * @return The number of tokens.
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * @return The number of sentences.
+     */
+    public int getSentenceCount() {
+        return sentenceCount;
+    }
+
+    /**
+     * @return The number of paragraphs.
+     */
+    public int getParagraphCount() {
+        return paragraphCount;
+    }
+
+    /**
+     * @param sentenceId A sentence id, or the number of sentences.
+     * @return The id of the sentence's first token (or the number of tokens).
+     */
+    public int getSentenceStart(int sentenceId) {
+        checkIndex(sentenceId, sentenceCount + 1);
+        return data.getInt(sentencesStart + 4 * sentenceId);
+    }
+
+    /**
+     * @param paragraphId A paragraph id, or the number of paragraphs.
+     * @return The id of the paragraph's first token (or the number of
+     *         tokens).
+     */
+    public int getParagraphStart(int paragraphId) {
+        checkIndex(paragraphId, paragraphCount + 1);
+        return data.getInt(paragraphsStart + 4 * paragraphId);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The offset of the token's first character.
+     */
+    public int getBeginOffset(int tokenId) {
+        return getField(tokenId, BEGIN_OFFSET);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The offset just past the token's last character.
+     */
+    public int getEndOffset(int tokenId) {
+        return getField(tokenId, END_OFFSET);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The id of the token's sentence.
+     */
+    public int getSentenceId(int tokenId) {
+        return getField(tokenId, SENTENCE_ID);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The id of the token's paragraph.
+     */
+    public int getParagraphId(int tokenId) {
+        return getField(tokenId, PARAGRAPH_ID);
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The token's original text.
+     */
+    public String getOriginal(int tokenId) {
+        return getString(getField(tokenId, ORIGINAL));
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The token's (normalized) text.
+     */
+    public String getWord(int tokenId) {
+        return getString(getField(tokenId, WORD));
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @return The whitespace after the token, as BookNLP encodes it.
+     */
+    public String getWhitespaceAfter(int tokenId) {
+        return getString(getField(tokenId, WHITESPACE_AFTER));
+    }
+
+    /**
+     * Writes a range of tokens in the same form as tokens.json (see
+     * TokenProcessor.tokensToJSON): an array of [text, whitespace] pairs.
+     *
+     * @param start The id of the first token to write.
+     * @param end The id just past the last token to write.
+     * @param out Where to write the JSON; flushed, but not closed.
+     * @throws IOException
+     */
+    public void writeJSON(int start, int end, Writer out) throws IOException {
+        if(start < 0 || end > tokenCount || start > end)
+            throw new IndexOutOfBoundsException("Token range "+ start +"-"+
+                end +" isn't within 0-"+ tokenCount +".");
+
+        TokenFilesWriter writer = new TokenFilesWriter(null,
+            new UnclosedWriter(out));
+        for(int i = start; i < end; i++)
+            writer.write(i, getOriginal(i), getWhitespaceAfter(i));
+        writer.close();
+        out.flush();
+    }
+
+    /**
+     * @param tokenId A token's id.
+     * @param field The field's offset within the token's record.
+     * @return The field's value.
+     */
+    private int getField(int tokenId, int field) {
+        checkIndex(tokenId, tokenCount);
+        return data.getInt(tokensStart + RECORD_SIZE * tokenId + field);
+    }
+
+    /**
+     * @param stringId A string's id.
+     * @return The string, decoded from the heap.
+     */
+    private String getString(int stringId) {
+        int start = (int) data.getLong(stringIndexStart + 8 * stringId);
+        int end = (int) data.getLong(stringIndexStart + 8 * (stringId + 1));
+        ByteBuffer bytes = data.duplicate();
+        bytes.limit(stringHeapStart + end);
+        bytes.position(stringHeapStart + start);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException If `index` isn't in [0, `count`).
+     */
+    private static void checkIndex(int index, int count) {
+        if(index < 0 || index >= count)
+            throw new IndexOutOfBoundsException(index +" isn't within 0-"+
+                (count - 1) +".");
+    }
+
+    /**
+     * Releases the mapping (once the garbage collector gets to it). The store
+     * can't be used afterwards, so don't close a store other threads may
+     * still be reading (see TokenStoreCache, which never closes stores).
+     */
+    public void close() {
+        data = null;
+    }
+
+    /**
+     * Passes writes through to another Writer but leaves it open when
+     * closed.
+     */
+    private static class UnclosedWriter extends Writer {
+        private Writer out;
+
+        public UnclosedWriter(Writer out) {
+            this.out = out;
+        }
+
+        public void write(char[] chars, int offset, int length)
+                throws IOException {
+            out.write(chars, offset, length);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
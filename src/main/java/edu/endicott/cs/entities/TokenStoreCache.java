@@ -0,0 +1,157 @@
+// Files:   TokenStoreCache.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A process-wide, least-recently-used cache of open (memory-mapped) token
+ * files, so requests for ranges of a text's tokens don't have to reopen and
+ * remap its tokens.bin each time. The cache holds at most
+ * `token_cache_texts` texts (default 16). A cached store is reopened if its
+ * file has changed since it was opened (e.g., because the text was
+ * tokenized again).
+ *
+ * Evicted stores aren't closed; other threads may still be reading them, and
+ * their mappings are released once nothing refers to them.
+ *
+ * Token files that don't exist yet (e.g., for texts tokenized before they
+ * were written) can be built in the background with `startBuild`. Builds run
+ * one at a time on a single low-priority thread, and a text that's already
+ * being built isn't built again.
+ */
+public class TokenStoreCache {
+    public static final int DEFAULT_TEXTS = 16;
+
+    private static int maxTexts = DEFAULT_TEXTS;
+    private static LinkedHashMap<String, CachedStore> stores =
+        new LinkedHashMap<String, CachedStore>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CachedStore> eldest) {
+                return size() > maxTexts;
+            }
+        };
+
+    // Token files being built, by path.
+    private static HashSet<String> building = new HashSet<String>();
+
+    private static final ExecutorService BUILDER =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "token-store-builder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+    /**
+     * A cached store, along with the version of the file it was opened from.
+     */
+    private static class CachedStore {
+        TokenStore store;
+        long lastModified, length;
+    }
+
+    /**
+     * Reads the cache size from the settings.
+     *
+     * @param settings The settings read from the configuration file.
+     */
+    public static synchronized void initialize(
+            HashMap<String, String> settings) {
+        maxTexts = Math.max(1, EntiTiesWorkerPool.getIntSetting(settings,
+            "token_cache_texts", DEFAULT_TEXTS));
+    }
+
+    /**
+     * Gets the token store for a token file, opening it if it isn't cached
+     * (or has changed since it was cached).
+     *
+     * @param file The token file (see TokenStore).
+     * @return The token store.
+     * @throws IOException If the file can't be opened.
+     */
+    public static TokenStore get(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized(TokenStoreCache.class) {
+            CachedStore entry = stores.get(key);
+            if(entry != null && entry.lastModified == lastModified &&
+                    entry.length == length)
+                return entry.store;
+        }
+
+        // Map the file outside the lock so other texts aren't held up.
+        CachedStore entry = new CachedStore();
+        entry.store = TokenStore.open(file);
+        entry.lastModified = lastModified;
+        entry.length = length;
+        synchronized(TokenStoreCache.class) {
+            stores.put(key, entry);
+        }
+        return entry.store;
+    }
+
+    /**
+     * Starts tokenizing a text in the background to create its token file,
+     * unless the file already exists or is already being built.
+     *
+     * @param textFile The text to tokenize (original.txt).
+     * @param file The token file to create (see TokenStore).
+     * @param logger The logger to report the build to.
+     * @return False if the file already exists (so there's nothing to wait
+     *         for), true otherwise.
+     */
+    public static boolean startBuild(final File textFile, final File file,
+            final EntiTiesLogger.RequestLogger logger) {
+        final String key = file.getAbsolutePath();
+        synchronized(TokenStoreCache.class) {
+            if(file.exists())
+                return false;
+            if(!building.add(key))
+                return true;
+        }
+
+        logger.log("Tokenizing "+ textFile.getPath() +" to create "+
+            file.getPath() +".");
+        BUILDER.execute(new Runnable() {
+            public void run() {
+                try {
+                    TokenProcessor.writeTokenStore(
+                        TokenProcessor.process(textFile), file);
+                    invalidate(file);
+                    logger.log("Created "+ file.getPath() +".");
+                } catch (Exception e) {
+                    logger.log("Couldn't create "+ file.getPath() +": "+ e);
+                    e.printStackTrace();
+                } finally {
+                    synchronized(TokenStoreCache.class) {
+                        building.remove(key);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Drops a token file from the cache.
+     *
+     * @param file The token file.
+     */
+    public static synchronized void invalidate(File file) {
+        stores.remove(file.getAbsolutePath());
+    }
+}
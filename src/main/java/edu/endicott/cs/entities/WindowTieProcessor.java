@@ -22,7 +22,7 @@ import edu.endicott.cs.entities.annotations.Tie;
 import edu.endicott.cs.entities.annotations.TieEntity;
 import edu.endicott.cs.entities.annotations.Entity;
 import edu.endicott.cs.entities.annotations.Group;
-import edu.endicott.cs.entities.annotations.Location;
+import edu.endicott.cs.entities.annotations.CompactAnnotation;
 
 /**
  * Extracts ties between entities by assigning a tie any time two entities are 
@@ -52,13 +52,15 @@ public class WindowTieProcessor extends Processor {
      * @return Whether processing completed successfully or not.
      */
     public boolean processRequest(EntiTiesSocket socket, String argsString, 
-            EntiTiesLogger.RequestLogger logger, EntiTiesDatabase database){
+            EntiTiesLogger.RequestLogger logger, 
+            EntiTiesPipelineContext context){
 
         EntiTiesFileManager fileManager;
         int n = 0, annotationId = -1;
         this.logger = logger;
+        database = context.getDatabase();
         boolean completedSuccessfully = false, truncateExistingTies = false;
-        Annotation annotation;
+        CompactAnnotation annotation;
 
         try {
             // Reads the incoming arguments.
@@ -81,8 +83,8 @@ public class WindowTieProcessor extends Processor {
             n = Integer.parseInt(args[1]);
             truncateExistingTies = args[2] == "true";
 
-            // Check that we can open the database.
-            if(!database.openConnection()){
+            // Check that we have a database connection.
+            if(!database.isConnected()){
                 error(socket.out, "Error: could not establish a database "+
                             "connection.");
                 return false;
@@ -94,20 +96,28 @@ public class WindowTieProcessor extends Processor {
                     error(socket.out, 
                         "Error: no annotation with this id exists in "+
                         "the database.");
-                    database.close();
                     return false;
                 case ERROR_QUERYING_DB:
                     error(socket.out, 
                         "Error: couldn't query the metadata table.");
-                    database.close();
                     return false;
                 default:
                     break;
             }
 
-            // Get the annotation from the database.
-            logger.log("Fetching annotation "+ annotationId +" from database.");
-            annotation = database.getAnnotation(annotationId);
+            // Use the annotation left by an earlier stage of this request,
+            // if there is one; otherwise get it from the database.
+            annotation = context.getAnnotation(annotationId);
+            if(annotation != null){
+                logger.log("Using annotation "+ annotationId +
+                    " from the previous stage.");
+            } else {
+                logger.log("Fetching annotation "+ annotationId +
+                    " from database.");
+                Annotation stored = database.getAnnotation(annotationId);
+                annotation = stored == null ? null :
+                    CompactAnnotation.fromAnnotation(stored);
+            }
             if(annotation == null){
                 error(socket.out, "Retrieved annotation (id = "+ annotationId +
                     ") is null; cannot continue.");
@@ -124,9 +134,10 @@ public class WindowTieProcessor extends Processor {
             logger.log("Extracting ties with window size "+ n +".");
             extractTies(annotation, n);
 
-            // Post the updated annotation.
-            logger.log("Posting updated annotation to database.");
-            if(!database.postAnnotation(annotationId, annotation.toString())){
+            // Save the updated annotation; it's posted to the database once
+            // the last stage of the request is done with it.
+            logger.log("Saving updated annotation.");
+            if(!context.saveAnnotation(annotationId, annotation)){
                 logger.log("Error: unable to post annotation to database.");
             } else {
                 completedSuccessfully = true;
@@ -157,13 +168,6 @@ public class WindowTieProcessor extends Processor {
                 logger.log("Couldn't close a socket, what's going on?");
                 e.printStackTrace();
                 completedSuccessfully = false;
-            } finally {
-                try{
-                    database.close();
-                } catch (SQLException e) {
-                    logger.log("Couldn't close database connection.");
-                    completedSuccessfully = false;
-                }
             }
             logger.log("Connection closed");
         }
@@ -185,25 +189,32 @@ public class WindowTieProcessor extends Processor {
      * @param n The window size, i.e., the maximum number of tokens between
      *          two entity mentions for a tie to be extracted.
      */
-    public void extractTies(Annotation annotation, int n){
-        for(Location loc1 : annotation.locations.values()){
-            for(Location loc2 : annotation.locations.tailMap(loc1.id).values()){
-                try{
-                    if(loc2.start - loc1.start <= n &&
-                         !annotation.entities.get(loc1.entityId).groupId.equals(
-                            annotation.entities.get(loc2.entityId).groupId)) {
-                        Tie tie = new Tie();
-                        tie.start = loc1.start;
-                        tie.end = loc2.end;
-                        tie.sourceEntity.locationId = loc1.id;
-                        tie.targetEntity.locationId = loc2.id;
-                        annotation.addTie(tie);        
-                    }
-                } catch(NullPointerException e){
-                    logger.log("NullPointerException processing Locations "+ 
-                        loc1.id +" (entity id: "+ loc1.entityId +") and "+ 
-                        loc2.id +" (entity id: "+ loc2.entityId +").");
+    public void extractTies(CompactAnnotation annotation, int n){
+        int size = annotation.getLocationCount();
+        for(int i = 0; i < size; i++){
+            int start1 = annotation.getLocationStart(i);
+            int entity1 = annotation.getLocationEntity(i);
+            // Locations are ordered by start, so stop at the first one that's
+            // out of the window.
+            for(int j = i; j < size &&
+                    annotation.getLocationStart(j) - start1 <= n; j++){
+                int entity2 = annotation.getLocationEntity(j);
+                // A missing entity, or a first entity without a group, can't
+                // be compared.
+                if(entity1 < 0 || entity2 < 0 || annotation.getEntityGroupId(
+                        entity1) == CompactAnnotation.NO_GROUP){
+                    logger.log("Missing entity or group processing "+
+                        "Locations "+ annotation.getLocationId(i) +
+                        " (entity id: "+ annotation.getLocationEntityId(i) +
+                        ") and "+ annotation.getLocationId(j) +
+                        " (entity id: "+ annotation.getLocationEntityId(j) +
+                        ").");
+                    continue;
                 }
+                if(annotation.getEntityGroupId(entity1) !=
+                        annotation.getEntityGroupId(entity2))
+                    annotation.addTie(start1, annotation.getLocationEnd(j),
+                        i, j);
             }
         }
     }
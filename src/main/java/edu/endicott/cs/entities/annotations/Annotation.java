@@ -9,9 +9,18 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.Iterator;
 
 
@@ -23,25 +32,53 @@ import java.util.Iterator;
  */
 public class Annotation {
     public HashMap<String, Entity> entities;
-    public TreeMap<String, Location> locations;
+    public LocationIndex locations;
     public HashMap<String, Tie> ties;
     public HashMap<String, Group> groups;
     long lastEntityId, lastTieId, lastGroupId;
+    private TieIndex tieIndex;
     boolean computeLastIdsFromData = false;
 
+    // Reverse indexes, kept up to date by the add methods and rebuilt on
+    // load (see rebuildIndexes).
+    private HashMap<String, ArrayList<Location>> entityLocations;
+    private HashMap<String, ArrayList<Entity>> groupEntities;
+    private HashMap<String, ArrayList<Tie>> locationTies;
+    private HashMap<String, ArrayList<Tie>> entityTies;
+
+    // The keys each object is indexed under, so it can be unindexed after
+    // its fields change (e.g., an entity moved to another group and added
+    // again).
+    private IdentityHashMap<Entity, String> indexedGroupIds;
+    private IdentityHashMap<Location, String> indexedEntityIds;
+    private IdentityHashMap<Tie, String[]> indexedTieKeys;
+
     public Annotation(String annotation) throws ParseException{
         this();
         load(annotation);
     }
 
+    public Annotation(Reader annotation) throws IOException, ParseException{
+        this();
+        load(annotation);
+    }
+
     public Annotation(){
         entities = new HashMap<String, Entity>();
         groups = new HashMap<String, Group>();
-        locations = new TreeMap<String, Location>(new LocationKeyComparator());
+        locations = new LocationIndex();
         ties = new HashMap<String, Tie>();
         lastEntityId = 0;
         lastGroupId = 0;
         lastTieId = 0;
+        tieIndex = null;
+        entityLocations = new HashMap<String, ArrayList<Location>>();
+        groupEntities = new HashMap<String, ArrayList<Entity>>();
+        locationTies = new HashMap<String, ArrayList<Tie>>();
+        entityTies = new HashMap<String, ArrayList<Tie>>();
+        indexedGroupIds = new IdentityHashMap<Entity, String>();
+        indexedEntityIds = new IdentityHashMap<Location, String>();
+        indexedTieKeys = new IdentityHashMap<Tie, String[]>();
     }
 
     // CRUD operations.
@@ -50,11 +87,17 @@ public class Annotation {
             entity.id = Long.toString(++lastEntityId);
         else
             lastEntityId = Math.max(lastEntityId, Long.parseLong(entity.id));
-        entities.put(entity.id, entity);
+        Entity replaced = entities.put(entity.id, entity);
+        if(replaced != null)
+            unindexEntity(replaced);
+        indexEntity(entity);
     }
 
     public void addLocation(Location location){
-        locations.put(location.id, location);
+        Location replaced = locations.put(location);
+        if(replaced != null)
+            unindexLocation(replaced);
+        indexLocation(location);
     }
 
     public void addGroup(Group group){
@@ -63,7 +106,7 @@ public class Annotation {
         else
             lastGroupId = Math.max(lastGroupId, Long.parseLong(group.id));
         groups.put(group.id, group);
-        
+        // Entities are indexed by group id, so they don't need updating.
     }
 
     public void addTie(Tie tie){
@@ -71,7 +114,11 @@ public class Annotation {
             tie.id = Long.toString(++lastTieId);
         else
             lastTieId = Math.max(lastTieId, Long.parseLong(tie.id));
-        ties.put(tie.id, tie);
+        Tie replaced = ties.put(tie.id, tie);
+        if(replaced != null)
+            unindexTie(replaced);
+        indexTie(tie);
+        tieIndex = null;
     }
 
 
@@ -82,13 +129,245 @@ public class Annotation {
     public void truncateTies(){
         ties.clear();
         lastTieId = 0;
+        tieIndex = null;
+        locationTies.clear();
+        entityTies.clear();
+        indexedTieKeys.clear();
+    }
+
+    // Reverse lookups.
+
+    /**
+     * @param entityId An entity's id.
+     * @return The entity's locations (mentions), in no particular order.
+     */
+    public List<Location> getEntityLocations(String entityId){
+        return lookUp(entityLocations, entityId);
+    }
+
+    /**
+     * @param groupId A group's id.
+     * @return The entities in the group, in no particular order.
+     */
+    public List<Entity> getGroupEntities(String groupId){
+        return lookUp(groupEntities, groupId);
+    }
+
+    /**
+     * @param locationId A location's id.
+     * @return The ties with the location as their source or target.
+     */
+    public List<Tie> getLocationTies(String locationId){
+        return lookUp(locationTies, locationId);
+    }
+
+    /**
+     * Gets the ties that touch an entity, either directly (a source or
+     * target with an entity id) or through one of its locations.
+     *
+     * @param entityId An entity's id.
+     * @return The ties, each listed once, in no particular order.
+     */
+    public List<Tie> getEntityTies(String entityId){
+        LinkedHashSet<Tie> found = new LinkedHashSet<Tie>(
+            lookUp(entityTies, entityId));
+        for(Location location : lookUp(entityLocations, entityId))
+            found.addAll(lookUp(locationTies, location.id));
+        return new ArrayList<Tie>(found);
+    }
+
+    /**
+     * Rebuilds the reverse indexes from `entities`, `locations`, and `ties`.
+     * Called after loading; call it after changing those directly rather
+     * than through the add methods.
+     */
+    public void rebuildIndexes(){
+        entityLocations.clear();
+        groupEntities.clear();
+        locationTies.clear();
+        entityTies.clear();
+        indexedGroupIds.clear();
+        indexedEntityIds.clear();
+        indexedTieKeys.clear();
+        for(Entity entity : entities.values())
+            indexEntity(entity);
+        for(Location location : locations)
+            indexLocation(location);
+        for(Tie tie : ties.values())
+            indexTie(tie);
+        tieIndex = null;
+    }
+
+    /**
+     * Adds an entity to the group index, under its current group id.
+     */
+    private void indexEntity(Entity entity){
+        index(groupEntities, entity.groupId, entity);
+        indexedGroupIds.put(entity, entity.groupId);
+    }
+
+    /**
+     * Removes an entity from the group index, under the group id it was
+     * indexed with.
+     */
+    private void unindexEntity(Entity entity){
+        if(indexedGroupIds.containsKey(entity))
+            unindex(groupEntities, indexedGroupIds.remove(entity), entity);
+    }
+
+    /**
+     * Adds a location to the entity location index, under its current
+     * entity id.
+     */
+    private void indexLocation(Location location){
+        index(entityLocations, location.entityId, location);
+        indexedEntityIds.put(location, location.entityId);
+    }
+
+    /**
+     * Removes a location from the entity location index, under the entity
+     * id it was indexed with.
+     */
+    private void unindexLocation(Location location){
+        if(indexedEntityIds.containsKey(location))
+            unindex(entityLocations, indexedEntityIds.remove(location),
+                location);
+    }
+
+    /**
+     * Adds a tie to the location and entity tie indexes. A tie is listed
+     * once under each distinct location or entity it touches.
+     */
+    private void indexTie(Tie tie){
+        String sourceLocation = tie.sourceEntity.locationId;
+        String targetLocation = tie.targetEntity.locationId;
+        index(locationTies, sourceLocation, tie);
+        if(targetLocation != null && !targetLocation.equals(sourceLocation))
+            index(locationTies, targetLocation, tie);
+
+        String sourceEntity = directEntityId(tie.sourceEntity);
+        String targetEntity = directEntityId(tie.targetEntity);
+        index(entityTies, sourceEntity, tie);
+        if(targetEntity != null && !targetEntity.equals(sourceEntity))
+            index(entityTies, targetEntity, tie);
+
+        indexedTieKeys.put(tie, new String[] {sourceLocation, targetLocation,
+            sourceEntity, targetEntity});
+    }
+
+    /**
+     * Removes a tie from the location and entity tie indexes, under the
+     * keys it was indexed with.
+     */
+    private void unindexTie(Tie tie){
+        String[] keys = indexedTieKeys.remove(tie);
+        if(keys == null)
+            return;
+        unindex(locationTies, keys[0], tie);
+        unindex(locationTies, keys[1], tie);
+        unindex(entityTies, keys[2], tie);
+        unindex(entityTies, keys[3], tie);
+    }
+
+    /**
+     * @return The entity id a tie end refers to directly, or null if it
+     *         refers to a location (which takes precedence, as in
+     *         TieEntity.toJSONObject).
+     */
+    private static String directEntityId(TieEntity end){
+        return end.locationId == null ? end.entityId : null;
+    }
+
+    /**
+     * Adds a value to the list for `key` in a reverse index.
+     */
+    private static <T> void index(HashMap<String, ArrayList<T>> index,
+            String key, T value){
+        if(key == null)
+            return;
+        ArrayList<T> values = index.get(key);
+        if(values == null){
+            values = new ArrayList<T>(2);
+            index.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Removes a value (by identity) from the list for `key` in a reverse
+     * index.
+     */
+    private static <T> void unindex(HashMap<String, ArrayList<T>> index,
+            String key, T value){
+        if(key == null)
+            return;
+        ArrayList<T> values = index.get(key);
+        if(values == null)
+            return;
+        for(int i = 0; i < values.size(); i++){
+            if(values.get(i) == value){
+                values.remove(i);
+                break;
+            }
+        }
+        if(values.isEmpty())
+            index.remove(key);
+    }
+
+    /**
+     * @return A read-only view of the list for `key` in a reverse index.
+     */
+    private static <T> List<T> lookUp(HashMap<String, ArrayList<T>> index,
+            String key){
+        ArrayList<T> values = index.get(key);
+        if(values == null)
+            return Collections.<T>emptyList();
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Gets an index for finding the ties that overlap, lie within, or
+     * contain a span of tokens. The index is rebuilt the first time it's
+     * asked for after ties are added, truncated, or loaded; it doesn't see
+     * changes made to `ties` directly.
+     *
+     * @return The tie index.
+     */
+    public TieIndex getTieIndex(){
+        if(tieIndex == null)
+            tieIndex = new TieIndex(ties.values());
+        return tieIndex;
     }
 
     // Extracting from JSON.
 
     public void load(String annotation) throws ParseException{
-        JSONObject json = (JSONObject) (new JSONParser().parse(annotation));
+        try {
+            load(new StringReader(annotation));
+        } catch (IOException e) {
+            // A StringReader doesn't throw.
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_EXCEPTION,
+                e);
+        }
+    }
 
+    /**
+     * Reads an annotation without parsing it into JSONObjects first (see
+     * AnnotationJSONReader).
+     *
+     * @param annotation Where to read the annotation from; not closed.
+     */
+    public void load(Reader annotation) throws IOException, ParseException{
+        new AnnotationJSONReader(annotation).read(this);
+        rebuildIndexes();
+    }
+
+    /**
+     * Reads an annotation already parsed into a JSONObject.
+     *
+     * @param json The annotation.
+     */
+    public void load(JSONObject json){
         computeLastIdsFromData = (!json.containsKey("last_entity_id") || 
            !json.containsKey("last_group_id") ||
            !json.containsKey("last_location_id"));
@@ -97,6 +376,7 @@ public class Annotation {
         jsonToGroups((JSONObject) json.get("groups"));
         jsonToLocations((JSONObject) json.get("locations"));
         jsonToTies((JSONObject) json.get("ties"));
+        rebuildIndexes();
     }
 
     public void jsonToEntities(JSONObject json){
@@ -126,12 +406,13 @@ public class Annotation {
         String id;
         while(keys.hasNext()){
             id = keys.next();
-            locations.put(id, new Location(id, (JSONObject) json.get(id)));
+            locations.put(new Location(id, (JSONObject) json.get(id)));
         }
     }
     public void jsonToTies(JSONObject json){
         Iterator<String> keys = json.keySet().iterator();
         String id;
+        tieIndex = null;
         while(keys.hasNext()){
             id = keys.next();
             ties.put(id, new Tie(id, (JSONObject) json.get(id)));
@@ -158,8 +439,8 @@ public class Annotation {
 
     public JSONObject locationsToJSON(){
         JSONObject json = new JSONObject();
-        for(String id : locations.keySet())
-            json.put(id, locations.get(id).toJSONObject());
+        for(Location location : locations)
+            json.put(location.id, location.toJSONObject());
         return json;
     }
 
@@ -170,16 +451,25 @@ public class Annotation {
         return json;
     }
 
+    /**
+     * Writes this annotation as JSON without building JSONObjects or a
+     * string first (see AnnotationJSONWriter).
+     *
+     * @param out Where to write the annotation; flushed but not closed.
+     */
+    public void writeJSON(Writer out) throws IOException {
+        new AnnotationJSONWriter(out).write(this);
+    }
+
     public String toString() {
-        JSONObject json = new JSONObject();
-        json.put("last_entity_id", lastEntityId);
-        json.put("last_group_id", lastGroupId);
-        json.put("last_tie_id", lastTieId);
-        json.put("entities", entitiesToJSON());
-        json.put("groups", groupsToJSON());
-        json.put("locations", locationsToJSON());
-        json.put("ties", tiesToJSON());
-        return json.toString();
+        StringWriter out = new StringWriter();
+        try {
+            writeJSON(out);
+        } catch (IOException e) {
+            // A StringWriter doesn't throw.
+            throw new RuntimeException(e);
+        }
+        return out.toString();
     }
 
 
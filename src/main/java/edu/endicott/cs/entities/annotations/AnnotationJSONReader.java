@@ -0,0 +1,611 @@
+// Files:   AnnotationJSONReader.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities.annotations;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads an annotation in the EntiTies JSON format (see Annotation.toString)
+ * one token at a time, creating its entities, groups, locations, and ties as
+ * it goes rather than parsing the whole annotation into a tree of
+ * JSONObjects first. Fields that aren't part of the format are skipped.
+ *
+ * Usage:
+ *
+ *     new AnnotationJSONReader(in).read(annotation);
+ */
+public class AnnotationJSONReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Reader in;
+    private char[] buffer;
+    private int length, position;
+    private long consumed;
+    private StringBuilder text;
+
+    // Whether the object just started by beginObject has had a key read yet.
+    private boolean firstKey;
+
+    // Set by read, for computing the last ids when they're missing.
+    private boolean hasLastEntityId, hasLastGroupId, hasLastLocationId,
+        hasLastTieId;
+    private long maxEntityId, maxGroupId, maxTieId;
+
+    /**
+     * @param in Where to read the annotation from; not closed.
+     */
+    public AnnotationJSONReader(Reader in) {
+        this.in = in;
+        buffer = new char[BUFFER_SIZE];
+        length = 0;
+        position = 0;
+        consumed = 0;
+        text = new StringBuilder();
+    }
+
+    /**
+     * Reads an annotation, adding its entities, groups, locations, and ties
+     * to `annotation`. If the annotation is missing any of its last ids (or
+     * one isn't a number or a numeric string), they're computed from the
+     * data, as Annotation.load does.
+     *
+     * @param annotation The annotation to add to.
+     * @throws IOException If the annotation can't be read.
+     * @throws ParseException If the annotation isn't valid JSON, or isn't
+     *                        in the annotation format.
+     */
+    public void read(Annotation annotation) throws IOException,
+            ParseException {
+        long lastEntityId = 0, lastGroupId = 0, lastTieId = 0;
+        hasLastEntityId = false;
+        hasLastGroupId = false;
+        hasLastLocationId = false;
+        hasLastTieId = false;
+        maxEntityId = annotation.lastEntityId;
+        maxGroupId = annotation.lastGroupId;
+        maxTieId = annotation.lastTieId;
+
+        beginObject();
+        while(hasNextKey()){
+            String key = readKey();
+            if(key.equals("entities")){
+                readEntities(annotation);
+            } else if(key.equals("groups")){
+                readGroups(annotation);
+            } else if(key.equals("locations")){
+                readLocations(annotation);
+            } else if(key.equals("ties")){
+                readTies(annotation);
+            } else if(key.equals("last_entity_id")){
+                Long id = readId();
+                if(id != null){
+                    lastEntityId = id;
+                    hasLastEntityId = true;
+                }
+            } else if(key.equals("last_group_id")){
+                Long id = readId();
+                if(id != null){
+                    lastGroupId = id;
+                    hasLastGroupId = true;
+                }
+            } else if(key.equals("last_tie_id")){
+                Long id = readId();
+                if(id != null){
+                    lastTieId = id;
+                    hasLastTieId = true;
+                }
+            } else if(key.equals("last_location_id")){
+                skipValue();
+                hasLastLocationId = true;
+            } else {
+                skipValue();
+            }
+        }
+        if(nextNonWhitespace() != -1)
+            throw unexpected();
+
+        annotation.computeLastIdsFromData = !hasLastEntityId ||
+            !hasLastGroupId || !hasLastLocationId;
+        if(annotation.computeLastIdsFromData){
+            annotation.lastEntityId = maxEntityId;
+            annotation.lastGroupId = maxGroupId;
+            annotation.lastTieId = maxTieId;
+        } else {
+            annotation.lastEntityId = lastEntityId;
+            annotation.lastGroupId = lastGroupId;
+            annotation.lastTieId = hasLastTieId ? lastTieId : maxTieId;
+        }
+    }
+
+    /**
+     * Reads the entities object.
+     */
+    private void readEntities(Annotation annotation) throws IOException,
+            ParseException {
+        if(!beginObject())
+            return;
+        while(hasNextKey()){
+            Entity entity = new Entity();
+            entity.id = readKey();
+            if(beginObject()){
+                while(hasNextKey()){
+                    String key = readKey();
+                    if(key.equals("name"))
+                        entity.name = readString();
+                    else if(key.equals("group_id"))
+                        entity.groupId = readString();
+                    else
+                        skipValue();
+                }
+            }
+            annotation.entities.put(entity.id, entity);
+            maxEntityId = maxId(maxEntityId, entity.id);
+        }
+    }
+
+    /**
+     * Reads the groups object.
+     */
+    private void readGroups(Annotation annotation) throws IOException,
+            ParseException {
+        if(!beginObject())
+            return;
+        while(hasNextKey()){
+            Group group = new Group();
+            group.id = readKey();
+            if(beginObject()){
+                while(hasNextKey()){
+                    String key = readKey();
+                    if(key.equals("name"))
+                        group.name = readString();
+                    else
+                        skipValue();
+                }
+            }
+            annotation.groups.put(group.id, group);
+            maxGroupId = maxId(maxGroupId, group.id);
+        }
+    }
+
+    /**
+     * Reads the locations object.
+     */
+    private void readLocations(Annotation annotation) throws IOException,
+            ParseException {
+        if(!beginObject())
+            return;
+        while(hasNextKey()){
+            Location location = new Location();
+            location.id = readKey();
+            if(beginObject()){
+                while(hasNextKey()){
+                    String key = readKey();
+                    if(key.equals("entity_id"))
+                        location.entityId = readString();
+                    else if(key.equals("start"))
+                        location.start = readLong();
+                    else if(key.equals("end"))
+                        location.end = readLong();
+                    else
+                        skipValue();
+                }
+            }
+            annotation.locations.put(location);
+        }
+    }
+
+    /**
+     * Reads the ties object.
+     */
+    private void readTies(Annotation annotation) throws IOException,
+            ParseException {
+        if(!beginObject())
+            return;
+        while(hasNextKey()){
+            Tie tie = new Tie();
+            long start = -1, end = -1;
+            boolean hasStart = false, hasEnd = false;
+            tie.id = readKey();
+            if(beginObject()){
+                while(hasNextKey()){
+                    String key = readKey();
+                    if(key.equals("label")){
+                        tie.label = readString();
+                    } else if(key.equals("start")){
+                        start = readLong();
+                        hasStart = true;
+                    } else if(key.equals("end")){
+                        end = readLong();
+                        hasEnd = true;
+                    } else if(key.equals("weight")){
+                        tie.weight = readDouble();
+                    } else if(key.equals("directed")){
+                        tie.directed = readBoolean();
+                    } else if(key.equals("source_entity")){
+                        tie.sourceEntity = readTieEntity();
+                    } else if(key.equals("target_entity")){
+                        tie.targetEntity = readTieEntity();
+                    } else {
+                        skipValue();
+                    }
+                }
+            }
+            // Like Tie(String, JSONObject), only take the span if it's whole.
+            if(hasStart && hasEnd){
+                tie.start = start;
+                tie.end = end;
+            }
+            annotation.ties.put(tie.id, tie);
+            maxTieId = maxId(maxTieId, tie.id);
+        }
+    }
+
+    /**
+     * Reads a tie's source or target entity. As in
+     * TieEntity(JSONObject), a location id takes precedence over an entity
+     * id.
+     */
+    private TieEntity readTieEntity() throws IOException, ParseException {
+        TieEntity tieEntity = new TieEntity();
+        String entityId = null;
+        if(!beginObject())
+            return tieEntity;
+        while(hasNextKey()){
+            String key = readKey();
+            if(key.equals("location_id"))
+                tieEntity.locationId = readString();
+            else if(key.equals("entity_id"))
+                entityId = readString();
+            else
+                skipValue();
+        }
+        if(tieEntity.locationId == null)
+            tieEntity.entityId = entityId;
+        return tieEntity;
+    }
+
+    // Tokens.
+
+    /**
+     * Reads the start of an object, or null.
+     *
+     * @return True if an object was started, false if the value was null.
+     */
+    private boolean beginObject() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        if(c == '{'){
+            position++;
+            firstKey = true;
+            return true;
+        }
+        if(c == 'n'){
+            readLiteral("null");
+            return false;
+        }
+        throw unexpected();
+    }
+
+    /**
+     * Moves to the next key of the current object.
+     *
+     * @return False (having read the closing brace) if the object has no
+     *         more keys.
+     */
+    private boolean hasNextKey() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        if(c == '}'){
+            position++;
+            firstKey = false;
+            return false;
+        }
+        if(firstKey){
+            firstKey = false;
+            return true;
+        }
+        if(c == ','){
+            position++;
+            return true;
+        }
+        throw unexpected();
+    }
+
+    /**
+     * Reads an object key and the colon after it.
+     */
+    private String readKey() throws IOException, ParseException {
+        if(nextNonWhitespace() != '"')
+            throw unexpected();
+        String key = readString();
+        if(nextNonWhitespace() != ':')
+            throw unexpected();
+        position++;
+        return key;
+    }
+
+    /**
+     * Reads a string value, or null.
+     */
+    private String readString() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        if(c == 'n'){
+            readLiteral("null");
+            return null;
+        }
+        if(c != '"')
+            throw unexpected();
+        position++;
+
+        text.setLength(0);
+        while(true){
+            if(position == length && !fill())
+                throw unexpected();
+
+            // Copy the run of plain characters in one go.
+            int start = position;
+            while(position < length && buffer[position] != '"' &&
+                    buffer[position] != '\\')
+                position++;
+            text.append(buffer, start, position - start);
+            if(position == length)
+                continue;
+
+            c = buffer[position++];
+            if(c == '"')
+                return text.toString();
+
+            // An escape sequence.
+            c = read();
+            switch(c){
+                case '"':  text.append('"'); break;
+                case '\\': text.append('\\'); break;
+                case '/':  text.append('/'); break;
+                case 'b':  text.append('\b'); break;
+                case 'f':  text.append('\f'); break;
+                case 'n':  text.append('\n'); break;
+                case 'r':  text.append('\r'); break;
+                case 't':  text.append('\t'); break;
+                case 'u':
+                    int value = 0;
+                    for(int i = 0; i < 4; i++){
+                        int digit = Character.digit(read(), 16);
+                        if(digit < 0)
+                            throw unexpected();
+                        value = value * 16 + digit;
+                    }
+                    text.append((char) value);
+                    break;
+                default:
+                    throw unexpected();
+            }
+        }
+    }
+
+    /**
+     * Reads a number as a long (truncating it if it has a fraction, as
+     * Number.longValue does).
+     */
+    private long readLong() throws IOException, ParseException {
+        String number = readNumber();
+        for(int i = 0; i < number.length(); i++){
+            char c = number.charAt(i);
+            if(c == '.' || c == 'e' || c == 'E')
+                return (long) Double.parseDouble(number);
+        }
+        return Long.parseLong(number);
+    }
+
+    /**
+     * Reads an id that may be written as a number or as a string (the web
+     * client stores the last ids it creates as strings).
+     *
+     * @return The id, or null if the value is null or isn't a number.
+     */
+    private Long readId() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        if(c == '"' || c == 'n'){
+            String id = readString();
+            if(id == null)
+                return null;
+            try {
+                return Long.parseLong(id.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return readLong();
+    }
+
+    /**
+     * Tracks the largest numeric id seen so far. Ids that aren't numbers
+     * are kept in the annotation but don't count toward the last id.
+     *
+     * @param max The largest id seen so far.
+     * @param id An entity, group, or tie id.
+     * @return The larger of the two.
+     */
+    private static long maxId(long max, String id) {
+        try {
+            return Math.max(max, Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            return max;
+        }
+    }
+
+    /**
+     * Reads a number as a double.
+     */
+    private double readDouble() throws IOException, ParseException {
+        return Double.parseDouble(readNumber());
+    }
+
+    /**
+     * Reads the characters of a number.
+     */
+    private String readNumber() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        if(c != '-' && (c < '0' || c > '9'))
+            throw unexpected();
+
+        text.setLength(0);
+        while(true){
+            c = peek();
+            if((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' ||
+                    c == 'e' || c == 'E'){
+                text.append((char) c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        try {
+            Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw new ParseException((int) (consumed + position),
+                ParseException.ERROR_UNEXPECTED_TOKEN, text.toString());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads true or false.
+     */
+    private boolean readBoolean() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        if(c == 't'){
+            readLiteral("true");
+            return true;
+        }
+        if(c == 'f'){
+            readLiteral("false");
+            return false;
+        }
+        throw unexpected();
+    }
+
+    /**
+     * Reads the given literal (e.g., "null").
+     */
+    private void readLiteral(String literal) throws IOException,
+            ParseException {
+        for(int i = 0; i < literal.length(); i++){
+            if(peek() != literal.charAt(i))
+                throw unexpected();
+            position++;
+        }
+    }
+
+    /**
+     * Skips a value of any type, including any objects and arrays nested in
+     * it.
+     */
+    private void skipValue() throws IOException, ParseException {
+        int c = nextNonWhitespace();
+        switch(c){
+            case '"':
+                readString();
+                break;
+            case 't':
+            case 'f':
+                readBoolean();
+                break;
+            case 'n':
+                readLiteral("null");
+                break;
+            case '{':
+                beginObject();
+                while(hasNextKey()){
+                    readKey();
+                    skipValue();
+                }
+                break;
+            case '[':
+                position++;
+                if(nextNonWhitespace() == ']'){
+                    position++;
+                    break;
+                }
+                while(true){
+                    skipValue();
+                    c = nextNonWhitespace();
+                    if(c != ']' && c != ',')
+                        throw unexpected();
+                    position++;
+                    if(c == ']')
+                        break;
+                }
+                break;
+            default:
+                readNumber();
+        }
+    }
+
+    // Characters.
+
+    /**
+     * Skips whitespace.
+     *
+     * @return The next character (without consuming it), or -1 at the end
+     *         of the input.
+     */
+    private int nextNonWhitespace() throws IOException {
+        while(true){
+            int c = peek();
+            if(c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return c;
+            position++;
+        }
+    }
+
+    /**
+     * @return The next character (without consuming it), or -1 at the end
+     *         of the input.
+     */
+    private int peek() throws IOException {
+        if(position == length && !fill())
+            return -1;
+        return buffer[position];
+    }
+
+    /**
+     * @return The next character, or -1 at the end of the input.
+     */
+    private int read() throws IOException {
+        if(position == length && !fill())
+            return -1;
+        return buffer[position++];
+    }
+
+    /**
+     * Reads the next block of input into the buffer.
+     *
+     * @return False if there's no more input.
+     */
+    private boolean fill() throws IOException {
+        consumed += length;
+        position = 0;
+        length = 0;
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while(read == 0);
+        if(read < 0)
+            return false;
+        length = read;
+        return true;
+    }
+
+    /**
+     * @return An exception for the character at the current position.
+     */
+    private ParseException unexpected() throws IOException {
+        int c = peek();
+        return new ParseException((int) (consumed + position),
+            c == -1 ? ParseException.ERROR_UNEXPECTED_TOKEN :
+                ParseException.ERROR_UNEXPECTED_CHAR,
+            c == -1 ? null : Character.valueOf((char) c));
+    }
+}
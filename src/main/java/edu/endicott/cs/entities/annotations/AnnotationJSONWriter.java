@@ -0,0 +1,326 @@
+// Files:   AnnotationJSONWriter.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities.annotations;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes an annotation (an Annotation or a CompactAnnotation) in the
+ * EntiTies JSON format straight to a Writer, without building a tree of
+ * JSONObjects or one big string first. Strings are escaped the way
+ * json-simple escapes them, so the output can be read by anything that
+ * reads Annotation.toString's output.
+ *
+ * Usage:
+ *
+ *     new AnnotationJSONWriter(out).write(annotation);
+ */
+public class AnnotationJSONWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The longest any one character can become once escaped (a unicode
+    // escape).
+    private static final int MAX_ESCAPED_LENGTH = 6;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private Writer out;
+    private char[] buffer;
+    private int length;
+
+    /**
+     * @param out Where to write the annotation; flushed but not closed.
+     */
+    public AnnotationJSONWriter(Writer out) {
+        this.out = out;
+        buffer = new char[BUFFER_SIZE];
+        length = 0;
+    }
+
+    /**
+     * Writes an annotation.
+     *
+     * @param annotation The annotation to write.
+     * @throws IOException
+     */
+    public void write(Annotation annotation) throws IOException {
+        append("{\"last_entity_id\":");
+        append(Long.toString(annotation.lastEntityId));
+        append(",\"last_group_id\":");
+        append(Long.toString(annotation.lastGroupId));
+        append(",\"last_tie_id\":");
+        append(Long.toString(annotation.lastTieId));
+
+        append(",\"entities\":{");
+        boolean first = true;
+        for(Entity entity : annotation.entities.values()){
+            startMember(entity.id, first);
+            append("{\"name\":");
+            appendString(entity.name);
+            append(",\"group_id\":");
+            appendString(entity.groupId);
+            append('}');
+            first = false;
+        }
+
+        append("},\"groups\":{");
+        first = true;
+        for(Group group : annotation.groups.values()){
+            startMember(group.id, first);
+            append("{\"name\":");
+            appendString(group.name);
+            append('}');
+            first = false;
+        }
+
+        append("},\"locations\":{");
+        first = true;
+        for(Location location : annotation.locations){
+            startMember(location.id, first);
+            append("{\"entity_id\":");
+            appendString(location.entityId);
+            append(",\"start\":");
+            append(Long.toString(location.start));
+            append(",\"end\":");
+            append(Long.toString(location.end));
+            append('}');
+            first = false;
+        }
+
+        append("},\"ties\":{");
+        first = true;
+        for(Tie tie : annotation.ties.values()){
+            startMember(tie.id, first);
+            writeTie(tie);
+            first = false;
+        }
+        append("}}");
+
+        out.write(buffer, 0, length);
+        length = 0;
+        out.flush();
+    }
+
+    /**
+     * Writes a compact annotation, in the same format (and the same order
+     * of fields) as an Annotation.
+     *
+     * @param annotation The annotation to write.
+     * @throws IOException
+     */
+    public void write(CompactAnnotation annotation) throws IOException {
+        append("{\"last_entity_id\":");
+        append(Long.toString(annotation.lastEntityId));
+        append(",\"last_group_id\":");
+        append(Long.toString(annotation.lastGroupId));
+        append(",\"last_tie_id\":");
+        append(Long.toString(annotation.lastTieId));
+
+        append(",\"entities\":{");
+        int count = annotation.getEntityCount();
+        for(int i = 0; i < count; i++){
+            startMember(Long.toString(annotation.getEntityId(i)), i == 0);
+            append("{\"name\":");
+            appendString(annotation.getEntityName(i));
+            append(",\"group_id\":");
+            long groupId = annotation.getEntityGroupId(i);
+            appendString(groupId == CompactAnnotation.NO_GROUP ? null :
+                Long.toString(groupId));
+            append('}');
+        }
+
+        append("},\"groups\":{");
+        count = annotation.getGroupCount();
+        for(int i = 0; i < count; i++){
+            startMember(Long.toString(annotation.getGroupId(i)), i == 0);
+            append("{\"name\":");
+            appendString(annotation.getGroupName(i));
+            append('}');
+        }
+
+        append("},\"locations\":{");
+        count = annotation.getLocationCount();
+        for(int i = 0; i < count; i++){
+            startMember(annotation.getLocationId(i), i == 0);
+            append("{\"entity_id\":");
+            appendString(annotation.getLocationEntityId(i));
+            append(",\"start\":");
+            append(Integer.toString(annotation.getLocationStart(i)));
+            append(",\"end\":");
+            append(Integer.toString(annotation.getLocationEnd(i)));
+            append('}');
+        }
+
+        append("},\"ties\":{");
+        count = annotation.getTieCount();
+        for(int i = 0; i < count; i++){
+            startMember(Long.toString(annotation.getTieId(i)), i == 0);
+            writeTie(annotation.getTieLabel(i), annotation.getTieStart(i),
+                annotation.getTieEnd(i), annotation.getTieWeight(i),
+                annotation.isTieDirected(i),
+                annotation.getTieEndLocationId(i, true),
+                annotation.getTieEndEntityId(i, true),
+                annotation.getTieEndLocationId(i, false),
+                annotation.getTieEndEntityId(i, false));
+        }
+        append("}}");
+
+        out.write(buffer, 0, length);
+        length = 0;
+        out.flush();
+    }
+
+    /**
+     * Writes a tie, leaving out the same fields Tie.toJSONObject does.
+     */
+    private void writeTie(Tie tie) throws IOException {
+        writeTie(tie.label, tie.start, tie.end, tie.weight, tie.directed,
+            tie.sourceEntity.locationId, tie.sourceEntity.entityId,
+            tie.targetEntity.locationId, tie.targetEntity.entityId);
+    }
+
+    /**
+     * Writes a tie from its fields. Each end is written as
+     * TieEntity.toJSONObject writes it: its location id if it has one,
+     * otherwise its entity id, otherwise an empty object.
+     */
+    private void writeTie(String label, long start, long end, double weight,
+            boolean directed, String sourceLocationId, String sourceEntityId,
+            String targetLocationId, String targetEntityId)
+            throws IOException {
+        append("{\"label\":");
+        appendString(label);
+        if(start >= 0 && end >= 0){
+            append(",\"start\":");
+            append(Long.toString(start));
+            append(",\"end\":");
+            append(Long.toString(end));
+        }
+        if(weight >= 0){
+            append(",\"weight\":");
+            // Like json-simple, which can't write NaN or infinity either.
+            append(Double.isInfinite(weight) ? "null" :
+                Double.toString(weight));
+        }
+        if(directed)
+            append(",\"directed\":true");
+        append(",\"source_entity\":");
+        writeTieEntity(sourceLocationId, sourceEntityId);
+        append(",\"target_entity\":");
+        writeTieEntity(targetLocationId, targetEntityId);
+        append('}');
+    }
+
+    /**
+     * Writes a tie's source or target entity, as TieEntity.toJSONObject
+     * does.
+     */
+    private void writeTieEntity(String locationId, String entityId)
+            throws IOException {
+        if(locationId != null){
+            append("{\"location_id\":");
+            appendString(locationId);
+            append('}');
+        } else if(entityId != null){
+            append("{\"entity_id\":");
+            appendString(entityId);
+            append('}');
+        } else {
+            append("{}");
+        }
+    }
+
+    /**
+     * Writes the comma (unless this is the first member) and key that start
+     * a member of an object.
+     */
+    private void startMember(String key, boolean first) throws IOException {
+        if(!first)
+            append(',');
+        appendString(key);
+        append(':');
+    }
+
+    /**
+     * Appends a quoted, escaped string, or null.
+     */
+    private void appendString(String value) throws IOException {
+        if(value == null){
+            append("null");
+            return;
+        }
+
+        ensureRoom(1);
+        buffer[length++] = '"';
+        int valueLength = value.length();
+        for(int i = 0; i < valueLength; i++){
+            ensureRoom(MAX_ESCAPED_LENGTH);
+            char c = value.charAt(i);
+            switch(c){
+                case '"':  buffer[length++] = '\\'; buffer[length++] = '"';
+                           break;
+                case '\\': buffer[length++] = '\\'; buffer[length++] = '\\';
+                           break;
+                case '/':  buffer[length++] = '\\'; buffer[length++] = '/';
+                           break;
+                case '\b': buffer[length++] = '\\'; buffer[length++] = 'b';
+                           break;
+                case '\f': buffer[length++] = '\\'; buffer[length++] = 'f';
+                           break;
+                case '\n': buffer[length++] = '\\'; buffer[length++] = 'n';
+                           break;
+                case '\r': buffer[length++] = '\\'; buffer[length++] = 'r';
+                           break;
+                case '\t': buffer[length++] = '\\'; buffer[length++] = 't';
+                           break;
+                default:
+                    // The same control and special characters json-simple
+                    // writes as unicode escapes.
+                    if(c <= '\u001F' || (c >= '\u007F' && c <= '\u009F') ||
+                            (c >= '\u2000' && c <= '\u20FF')){
+                        buffer[length++] = '\\';
+                        buffer[length++] = 'u';
+                        buffer[length++] = HEX[(c >> 12) & 0xF];
+                        buffer[length++] = HEX[(c >> 8) & 0xF];
+                        buffer[length++] = HEX[(c >> 4) & 0xF];
+                        buffer[length++] = HEX[c & 0xF];
+                    } else {
+                        buffer[length++] = c;
+                    }
+            }
+        }
+        ensureRoom(1);
+        buffer[length++] = '"';
+    }
+
+    /**
+     * Appends text that doesn't need escaping.
+     */
+    private void append(String text) throws IOException {
+        int textLength = text.length();
+        ensureRoom(textLength);
+        text.getChars(0, textLength, buffer, length);
+        length += textLength;
+    }
+
+    /**
+     * Appends a character that doesn't need escaping.
+     */
+    private void append(char c) throws IOException {
+        ensureRoom(1);
+        buffer[length++] = c;
+    }
+
+    /**
+     * Hands the buffer to the Writer if it has fewer than `room` free
+     * characters.
+     */
+    private void ensureRoom(int room) throws IOException {
+        if(length + room > buffer.length){
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,782 @@
+// Files:   CompactAnnotation.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities.annotations;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * An annotation held as parallel primitive arrays rather than one object
+ * (with string ids) per entity, group, location, and tie. Groups, entities,
+ * locations, and ties are referred to by their dense int index in their
+ * table; their external ids (decimal numbers in the JSON) are kept as longs
+ * and only turned into strings when the annotation is written (see
+ * writeJSON, which writes the same format as Annotation.toString).
+ *
+ * Locations are kept ordered by start and then end offset, as in
+ * LocationIndex; adding a location with the same start and end as an
+ * existing one replaces it. A location's id is "start_end" unless it was
+ * given another one (e.g., the web client keeps a location's id when its
+ * start and end are edited), in which case that id is kept. Tie ends that
+ * refer to a location store its id, as a (start, end) pair when it's in the
+ * "start_end" form, so they stay valid when locations are added.
+ *
+ * Use `fromAnnotation` and `toAnnotation` to convert to and from the object
+ * model.
+ */
+public class CompactAnnotation {
+    // Pass as an id to have the next free id assigned.
+    public static final long NEW_ID = -1;
+
+    // The group id of an entity without one.
+    public static final long NO_GROUP = Long.MIN_VALUE;
+
+    // An entity reference that refers to nothing.
+    public static final int NONE = -1;
+
+    // What a tie end refers to.
+    private static final byte END_NONE = 0;
+    private static final byte END_LOCATION = 1;
+    private static final byte END_ENTITY = 2;
+    private static final byte END_OTHER_LOCATION = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    long lastEntityId, lastGroupId, lastTieId;
+
+    // Groups.
+    private int groupCount;
+    private long[] groupIds;
+    private String[] groupNames;
+    private HashMap<Long, Integer> groupIndexes;
+
+    // Entities.
+    private int entityCount;
+    private long[] entityIds, entityGroupIds;
+    private String[] entityNames;
+    private HashMap<Long, Integer> entityIndexes;
+
+    // Locations; the entity column holds entity references (see entityRef),
+    // and the id column holds ids that aren't "start_end" (null otherwise).
+    private int locationCount;
+    private int[] locationStarts, locationEnds, locationEntities;
+    private String[] locationIds;
+    private boolean locationsSorted;
+
+    // Ties. Each end is a kind (END_*) and up to two values: a location's
+    // start and end, an entity reference, or an index into otherIds.
+    private int tieCount;
+    private long[] tieIds;
+    private String[] tieLabels;
+    private int[] tieStarts, tieEnds;
+    private double[] tieWeights;
+    private boolean[] tieDirected;
+    private byte[] sourceKinds, targetKinds;
+    private int[] sourceFirsts, sourceSeconds, targetFirsts, targetSeconds;
+
+    // Ids that don't fit the columns (e.g., the id of an entity that isn't
+    // in the annotation), kept so they're written back out as they were.
+    private ArrayList<String> otherIds;
+
+    public CompactAnnotation() {
+        lastEntityId = 0;
+        lastGroupId = 0;
+        lastTieId = 0;
+
+        groupCount = 0;
+        groupIds = new long[INITIAL_CAPACITY];
+        groupNames = new String[INITIAL_CAPACITY];
+        groupIndexes = new HashMap<Long, Integer>();
+
+        entityCount = 0;
+        entityIds = new long[INITIAL_CAPACITY];
+        entityGroupIds = new long[INITIAL_CAPACITY];
+        entityNames = new String[INITIAL_CAPACITY];
+        entityIndexes = new HashMap<Long, Integer>();
+
+        locationCount = 0;
+        locationStarts = new int[INITIAL_CAPACITY];
+        locationEnds = new int[INITIAL_CAPACITY];
+        locationEntities = new int[INITIAL_CAPACITY];
+        locationIds = new String[INITIAL_CAPACITY];
+        locationsSorted = true;
+
+        tieCount = 0;
+        tieIds = new long[INITIAL_CAPACITY];
+        tieLabels = new String[INITIAL_CAPACITY];
+        tieStarts = new int[INITIAL_CAPACITY];
+        tieEnds = new int[INITIAL_CAPACITY];
+        tieWeights = new double[INITIAL_CAPACITY];
+        tieDirected = new boolean[INITIAL_CAPACITY];
+        sourceKinds = new byte[INITIAL_CAPACITY];
+        targetKinds = new byte[INITIAL_CAPACITY];
+        sourceFirsts = new int[INITIAL_CAPACITY];
+        sourceSeconds = new int[INITIAL_CAPACITY];
+        targetFirsts = new int[INITIAL_CAPACITY];
+        targetSeconds = new int[INITIAL_CAPACITY];
+
+        otherIds = new ArrayList<String>();
+    }
+
+    // Groups.
+
+    /**
+     * Adds a group, replacing any group with the same id.
+     *
+     * @param id The group's id, or NEW_ID.
+     * @param name The group's name.
+     * @return The group's index.
+     */
+    public int addGroup(long id, String name) {
+        if(id == NEW_ID)
+            id = ++lastGroupId;
+        else
+            lastGroupId = Math.max(lastGroupId, id);
+
+        Integer existing = groupIndexes.get(id);
+        if(existing != null){
+            groupNames[existing] = name;
+            return existing;
+        }
+
+        if(groupCount == groupIds.length){
+            int capacity = groupCount * 2;
+            groupIds = Arrays.copyOf(groupIds, capacity);
+            groupNames = Arrays.copyOf(groupNames, capacity);
+        }
+        groupIds[groupCount] = id;
+        groupNames[groupCount] = name;
+        groupIndexes.put(id, groupCount);
+        return groupCount++;
+    }
+
+    /**
+     * @return The number of groups.
+     */
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @param group A group's index.
+     * @return The group's id.
+     */
+    public long getGroupId(int group) {
+        return groupIds[group];
+    }
+
+    /**
+     * @param group A group's index.
+     * @return The group's name.
+     */
+    public String getGroupName(int group) {
+        return groupNames[group];
+    }
+
+    // Entities.
+
+    /**
+     * Adds an entity, replacing any entity with the same id.
+     *
+     * @param id The entity's id, or NEW_ID.
+     * @param name The entity's name.
+     * @param groupId The id of the entity's group, or NO_GROUP.
+     * @return The entity's index.
+     */
+    public int addEntity(long id, String name, long groupId) {
+        if(id == NEW_ID)
+            id = ++lastEntityId;
+        else
+            lastEntityId = Math.max(lastEntityId, id);
+
+        Integer existing = entityIndexes.get(id);
+        if(existing != null){
+            entityNames[existing] = name;
+            entityGroupIds[existing] = groupId;
+            return existing;
+        }
+
+        if(entityCount == entityIds.length){
+            int capacity = entityCount * 2;
+            entityIds = Arrays.copyOf(entityIds, capacity);
+            entityGroupIds = Arrays.copyOf(entityGroupIds, capacity);
+            entityNames = Arrays.copyOf(entityNames, capacity);
+        }
+        entityIds[entityCount] = id;
+        entityGroupIds[entityCount] = groupId;
+        entityNames[entityCount] = name;
+        entityIndexes.put(id, entityCount);
+        return entityCount++;
+    }
+
+    /**
+     * @param id An entity's id.
+     * @return The entity's index, or NONE.
+     */
+    public int findEntity(long id) {
+        Integer index = entityIndexes.get(id);
+        return index == null ? NONE : index;
+    }
+
+    /**
+     * @return The number of entities.
+     */
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * @param entity An entity's index.
+     * @return The entity's id.
+     */
+    public long getEntityId(int entity) {
+        return entityIds[entity];
+    }
+
+    /**
+     * @param entity An entity's index.
+     * @return The entity's name.
+     */
+    public String getEntityName(int entity) {
+        return entityNames[entity];
+    }
+
+    /**
+     * @param entity An entity's index.
+     * @return The id of the entity's group, or NO_GROUP.
+     */
+    public long getEntityGroupId(int entity) {
+        return entityGroupIds[entity];
+    }
+
+    // Locations.
+
+    /**
+     * Adds a location, replacing any location with the same start and end.
+     *
+     * @param start The location's first token.
+     * @param end The location's last token.
+     * @param entity The index of the location's entity.
+     */
+    public void addLocation(int start, int end, int entity) {
+        addLocation(null, start, end, entity);
+    }
+
+    /**
+     * Adds a location, replacing any location with the same start and end.
+     *
+     * @param id The location's id, or null for "start_end".
+     * @param start The location's first token.
+     * @param end The location's last token.
+     * @param entity A reference to the location's entity (see entityRef).
+     */
+    private void addLocation(String id, int start, int end, int entity) {
+        if(id != null && id.equals(start +"_"+ end))
+            id = null;
+
+        if(locationsSorted && locationCount > 0){
+            int order = compare(start, end, locationStarts[locationCount-1],
+                locationEnds[locationCount-1]);
+            if(order == 0){
+                locationEntities[locationCount-1] = entity;
+                locationIds[locationCount-1] = id;
+                return;
+            }
+            if(order < 0){
+                int index = findLocation(start, end);
+                if(index >= 0){
+                    locationEntities[index] = entity;
+                    locationIds[index] = id;
+                    return;
+                }
+                locationsSorted = false;
+            }
+        }
+
+        if(locationCount == locationStarts.length){
+            int capacity = locationCount * 2;
+            locationStarts = Arrays.copyOf(locationStarts, capacity);
+            locationEnds = Arrays.copyOf(locationEnds, capacity);
+            locationEntities = Arrays.copyOf(locationEntities, capacity);
+            locationIds = Arrays.copyOf(locationIds, capacity);
+        }
+        locationStarts[locationCount] = start;
+        locationEnds[locationCount] = end;
+        locationEntities[locationCount] = entity;
+        locationIds[locationCount] = id;
+        locationCount++;
+    }
+
+    /**
+     * @param start A location's first token.
+     * @param end A location's last token.
+     * @return The location's index, or NONE.
+     */
+    public int findLocation(int start, int end) {
+        sortLocations();
+        int low = 0, high = locationCount - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int order = compare(locationStarts[middle], locationEnds[middle],
+                start, end);
+            if(order < 0)
+                low = middle + 1;
+            else if(order > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return NONE;
+    }
+
+    /**
+     * @return The number of locations.
+     */
+    public int getLocationCount() {
+        sortLocations();
+        return locationCount;
+    }
+
+    /**
+     * @param location A location's index (locations are ordered by start
+     *                 and then end).
+     * @return The location's first token.
+     */
+    public int getLocationStart(int location) {
+        sortLocations();
+        return locationStarts[location];
+    }
+
+    /**
+     * @param location A location's index.
+     * @return The location's last token.
+     */
+    public int getLocationEnd(int location) {
+        sortLocations();
+        return locationEnds[location];
+    }
+
+    /**
+     * @param location A location's index.
+     * @return The index of the location's entity, or a negative number if
+     *         it has none or its entity isn't in the annotation.
+     */
+    public int getLocationEntity(int location) {
+        sortLocations();
+        return locationEntities[location];
+    }
+
+    /**
+     * @param location A location's index.
+     * @return The location's id ("start_end", unless it was given another).
+     */
+    public String getLocationId(int location) {
+        sortLocations();
+        if(locationIds[location] != null)
+            return locationIds[location];
+        return locationStarts[location] +"_"+ locationEnds[location];
+    }
+
+    /**
+     * @param location A location's index.
+     * @return The id of the location's entity, or null.
+     */
+    public String getLocationEntityId(int location) {
+        sortLocations();
+        return entityRefId(locationEntities[location]);
+    }
+
+    /**
+     * Sorts the locations if any were added out of order. Of locations with
+     * the same start and end, the last one added is kept.
+     */
+    private void sortLocations() {
+        if(locationsSorted)
+            return;
+
+        Integer[] order = new Integer[locationCount];
+        for(int i = 0; i < locationCount; i++)
+            order[i] = i;
+        // The sort is stable, so the last of each run of equal keys is the
+        // most recently added.
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return CompactAnnotation.compare(locationStarts[a],
+                    locationEnds[a], locationStarts[b], locationEnds[b]);
+            }
+        });
+
+        int[] starts = new int[locationStarts.length];
+        int[] ends = new int[locationStarts.length];
+        int[] entities = new int[locationStarts.length];
+        String[] ids = new String[locationStarts.length];
+        int kept = 0;
+        for(int i = 0; i < locationCount; i++){
+            int location = order[i];
+            if(i + 1 < locationCount){
+                int next = order[i+1];
+                if(locationStarts[location] == locationStarts[next] &&
+                        locationEnds[location] == locationEnds[next])
+                    continue;
+            }
+            starts[kept] = locationStarts[location];
+            ends[kept] = locationEnds[location];
+            entities[kept] = locationEntities[location];
+            ids[kept] = locationIds[location];
+            kept++;
+        }
+        locationStarts = starts;
+        locationEnds = ends;
+        locationEntities = entities;
+        locationIds = ids;
+        locationCount = kept;
+        locationsSorted = true;
+    }
+
+    /**
+     * Orders (start, end) pairs by start and then end.
+     */
+    private static int compare(int startA, int endA, int startB, int endB) {
+        if(startA != startB)
+            return startA < startB ? -1 : 1;
+        return endA < endB ? -1 : (endA == endB ? 0 : 1);
+    }
+
+    // Ties.
+
+    /**
+     * Adds an undirected, unweighted, unlabeled tie between two locations,
+     * with a new id.
+     *
+     * @param start The tie's first token.
+     * @param end The tie's last token.
+     * @param sourceLocation The index of the source location.
+     * @param targetLocation The index of the target location.
+     * @return The tie's index.
+     */
+    public int addTie(int start, int end, int sourceLocation,
+            int targetLocation) {
+        int tie = addTie(NEW_ID, null, start, end, -1, false);
+        setTieEnd(tie, true, sourceLocation);
+        setTieEnd(tie, false, targetLocation);
+        return tie;
+    }
+
+    /**
+     * Sets one end of a tie to a location.
+     */
+    private void setTieEnd(int tie, boolean source, int location) {
+        sortLocations();
+        byte kind = END_LOCATION;
+        int first = locationStarts[location], second = locationEnds[location];
+        if(locationIds[location] != null){
+            kind = END_OTHER_LOCATION;
+            first = otherId(locationIds[location]);
+            second = 0;
+        }
+        setTieEnd(tie, source, kind, first, second);
+    }
+
+    /**
+     * Adds a tie with no ends (see setTieEnd). Unlike entities and groups,
+     * ties aren't checked for duplicate ids.
+     *
+     * @return The tie's index.
+     */
+    private int addTie(long id, String label, int start, int end,
+            double weight, boolean directed) {
+        if(id == NEW_ID)
+            id = ++lastTieId;
+        else
+            lastTieId = Math.max(lastTieId, id);
+
+        if(tieCount == tieIds.length){
+            int capacity = tieCount * 2;
+            tieIds = Arrays.copyOf(tieIds, capacity);
+            tieLabels = Arrays.copyOf(tieLabels, capacity);
+            tieStarts = Arrays.copyOf(tieStarts, capacity);
+            tieEnds = Arrays.copyOf(tieEnds, capacity);
+            tieWeights = Arrays.copyOf(tieWeights, capacity);
+            tieDirected = Arrays.copyOf(tieDirected, capacity);
+            sourceKinds = Arrays.copyOf(sourceKinds, capacity);
+            targetKinds = Arrays.copyOf(targetKinds, capacity);
+            sourceFirsts = Arrays.copyOf(sourceFirsts, capacity);
+            sourceSeconds = Arrays.copyOf(sourceSeconds, capacity);
+            targetFirsts = Arrays.copyOf(targetFirsts, capacity);
+            targetSeconds = Arrays.copyOf(targetSeconds, capacity);
+        }
+        tieIds[tieCount] = id;
+        tieLabels[tieCount] = label;
+        tieStarts[tieCount] = start;
+        tieEnds[tieCount] = end;
+        tieWeights[tieCount] = weight;
+        tieDirected[tieCount] = directed;
+        sourceKinds[tieCount] = END_NONE;
+        targetKinds[tieCount] = END_NONE;
+        return tieCount++;
+    }
+
+    /**
+     * Sets one end of a tie from a TieEntity.
+     */
+    private void setTieEnd(int tie, boolean source, TieEntity end) {
+        byte kind = END_NONE;
+        int first = 0, second = 0;
+        if(end.locationId != null){
+            String id = end.locationId;
+            int separator = id.indexOf('_');
+            try {
+                if(separator < 0)
+                    throw new NumberFormatException(id);
+                first = Integer.parseInt(id.substring(0, separator));
+                second = Integer.parseInt(id.substring(separator+1));
+                // Only ids that would be written back the same way.
+                if(!id.equals(first +"_"+ second))
+                    throw new NumberFormatException(id);
+                kind = END_LOCATION;
+            } catch (NumberFormatException e) {
+                // Not "start_end"; keep the id as it is.
+                first = otherId(id);
+                second = 0;
+                kind = END_OTHER_LOCATION;
+            }
+        } else if(end.entityId != null){
+            first = entityRef(end.entityId);
+            kind = END_ENTITY;
+        }
+        setTieEnd(tie, source, kind, first, second);
+    }
+
+    /**
+     * Sets one end of a tie.
+     */
+    private void setTieEnd(int tie, boolean source, byte kind, int first,
+            int second) {
+        if(source){
+            sourceKinds[tie] = kind;
+            sourceFirsts[tie] = first;
+            sourceSeconds[tie] = second;
+        } else {
+            targetKinds[tie] = kind;
+            targetFirsts[tie] = first;
+            targetSeconds[tie] = second;
+        }
+    }
+
+    /**
+     * @return The number of ties.
+     */
+    public int getTieCount() {
+        return tieCount;
+    }
+
+    /**
+     * @param tie A tie's index.
+     * @return The tie's id.
+     */
+    public long getTieId(int tie) {
+        return tieIds[tie];
+    }
+
+    /**
+     * @param tie A tie's index.
+     * @return The tie's first token, or -1.
+     */
+    public int getTieStart(int tie) {
+        return tieStarts[tie];
+    }
+
+    /**
+     * @param tie A tie's index.
+     * @return The tie's last token, or -1.
+     */
+    public int getTieEnd(int tie) {
+        return tieEnds[tie];
+    }
+
+    /**
+     * Removes all ties.
+     */
+    public void truncateTies() {
+        Arrays.fill(tieLabels, 0, tieCount, null);
+        tieCount = 0;
+        lastTieId = 0;
+    }
+
+    // Package access for AnnotationJSONWriter.
+
+    String getTieLabel(int tie) {
+        return tieLabels[tie];
+    }
+
+    double getTieWeight(int tie) {
+        return tieWeights[tie];
+    }
+
+    boolean isTieDirected(int tie) {
+        return tieDirected[tie];
+    }
+
+    /**
+     * @param tie A tie's index.
+     * @param source True for the source end, false for the target.
+     * @return The id of the location the end refers to, or null.
+     */
+    String getTieEndLocationId(int tie, boolean source) {
+        byte kind = source ? sourceKinds[tie] : targetKinds[tie];
+        int first = source ? sourceFirsts[tie] : targetFirsts[tie];
+        int second = source ? sourceSeconds[tie] : targetSeconds[tie];
+        if(kind == END_LOCATION)
+            return first +"_"+ second;
+        if(kind == END_OTHER_LOCATION)
+            return otherIds.get(first);
+        return null;
+    }
+
+    /**
+     * @param tie A tie's index.
+     * @param source True for the source end, false for the target.
+     * @return The id of the entity the end refers to, or null.
+     */
+    String getTieEndEntityId(int tie, boolean source) {
+        byte kind = source ? sourceKinds[tie] : targetKinds[tie];
+        if(kind != END_ENTITY)
+            return null;
+        return entityRefId(source ? sourceFirsts[tie] : targetFirsts[tie]);
+    }
+
+    // Entity references: an entity's index, NONE for none, or -(i + 2) for
+    // the i-th entry in otherIds.
+
+    /**
+     * @param id An entity id from JSON.
+     * @return A reference to the entity.
+     */
+    private int entityRef(String id) {
+        if(id == null)
+            return NONE;
+        try {
+            Integer index = entityIndexes.get(Long.parseLong(id));
+            if(index != null && Long.toString(entityIds[index]).equals(id))
+                return index;
+        } catch (NumberFormatException e) {
+            // Not an entity id this annotation could hold; fall through.
+        }
+        return -(otherId(id) + 2);
+    }
+
+    /**
+     * @param ref An entity reference.
+     * @return The referenced entity's id, or null.
+     */
+    String entityRefId(int ref) {
+        if(ref >= 0)
+            return Long.toString(entityIds[ref]);
+        if(ref == NONE)
+            return null;
+        return otherIds.get(-ref - 2);
+    }
+
+    /**
+     * @return The index of `id` in otherIds, after adding it.
+     */
+    private int otherId(String id) {
+        otherIds.add(id);
+        return otherIds.size() - 1;
+    }
+
+    // Converting.
+
+    /**
+     * Converts an annotation from the object model. Ids must be decimal
+     * numbers, as Annotation requires.
+     *
+     * @param annotation The annotation to convert.
+     * @return The compact annotation.
+     */
+    public static CompactAnnotation fromAnnotation(Annotation annotation) {
+        CompactAnnotation compact = new CompactAnnotation();
+        for(Group group : annotation.groups.values())
+            compact.addGroup(Long.parseLong(group.id), group.name);
+        for(Entity entity : annotation.entities.values())
+            compact.addEntity(Long.parseLong(entity.id), entity.name,
+                entity.groupId == null ? NO_GROUP :
+                    Long.parseLong(entity.groupId));
+        for(Location location : annotation.locations)
+            compact.addLocation(location.id, (int) location.start,
+                (int) location.end, compact.entityRef(location.entityId));
+        for(Tie tie : annotation.ties.values()){
+            int index = compact.addTie(Long.parseLong(tie.id), tie.label,
+                (int) tie.start, (int) tie.end, tie.weight, tie.directed);
+            compact.setTieEnd(index, true, tie.sourceEntity);
+            compact.setTieEnd(index, false, tie.targetEntity);
+        }
+        compact.lastEntityId = annotation.lastEntityId;
+        compact.lastGroupId = annotation.lastGroupId;
+        compact.lastTieId = annotation.lastTieId;
+        return compact;
+    }
+
+    /**
+     * @return This annotation in the object model.
+     */
+    public Annotation toAnnotation() {
+        Annotation annotation = new Annotation();
+        for(int i = 0; i < groupCount; i++)
+            annotation.addGroup(new Group(Long.toString(groupIds[i]),
+                groupNames[i]));
+        for(int i = 0; i < entityCount; i++)
+            annotation.addEntity(new Entity(Long.toString(entityIds[i]),
+                entityNames[i], entityGroupIds[i] == NO_GROUP ? null :
+                    Long.toString(entityGroupIds[i])));
+        int locations = getLocationCount();
+        for(int i = 0; i < locations; i++)
+            annotation.addLocation(new Location(getLocationId(i),
+                entityRefId(locationEntities[i]), locationStarts[i],
+                locationEnds[i]));
+        for(int i = 0; i < tieCount; i++){
+            Tie tie = new Tie();
+            tie.id = Long.toString(tieIds[i]);
+            tie.label = tieLabels[i];
+            tie.start = tieStarts[i];
+            tie.end = tieEnds[i];
+            tie.weight = tieWeights[i];
+            tie.directed = tieDirected[i];
+            tie.sourceEntity = new TieEntity(getTieEndLocationId(i, true),
+                getTieEndEntityId(i, true));
+            tie.targetEntity = new TieEntity(getTieEndLocationId(i, false),
+                getTieEndEntityId(i, false));
+            annotation.addTie(tie);
+        }
+        annotation.lastEntityId = lastEntityId;
+        annotation.lastGroupId = lastGroupId;
+        annotation.lastTieId = lastTieId;
+        return annotation;
+    }
+
+    /**
+     * Writes this annotation in the same JSON format as Annotation.
+     *
+     * @param out Where to write the annotation; flushed but not closed.
+     */
+    public void writeJSON(Writer out) throws IOException {
+        new AnnotationJSONWriter(out).write(this);
+    }
+
+    public String toString() {
+        StringWriter out = new StringWriter();
+        try {
+            writeJSON(out);
+        } catch (IOException e) {
+            // A StringWriter doesn't throw.
+            throw new RuntimeException(e);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,355 @@
+// Files:   LocationIndex.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities.annotations;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An annotation's locations, ordered by start offset and then end offset.
+ * Locations are keyed on their (start, end) pair, held in primitive arrays,
+ * so adding, finding, and ordering them never touches their string ids
+ * ("start_end"); those are only used when reading and writing JSON.
+ *
+ * Locations added in order (as BookNLP produces them and as annotations are
+ * written) are appended; a location added out of order marks the index
+ * unsorted, and it's sorted again the next time it's read. Adding a location
+ * with the same start and end as one already in the index replaces it in
+ * place, without sorting: the sorted part of the index is binary searched,
+ * and locations added since it was last sorted are found through a hash of
+ * their (start, end) pairs.
+ *
+ * Besides lookups by start offset, the index answers overlap and
+ * containment queries through an interval tree (see SpanTree) that's built
+ * the first time it's needed after the index changes.
+ *
+ * A location's start and end must not be changed while it's in the index.
+ */
+public class LocationIndex implements Iterable<Location> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final Comparator<Location> ORDER =
+        new Comparator<Location>() {
+            public int compare(Location a, Location b) {
+                return LocationIndex.compare(a.start, a.end, b.start, b.end);
+            }
+        };
+
+    private long[] starts, ends;
+    private Location[] locations;
+    private int size;
+    private boolean sorted;
+    private int sortedSize;
+    private HashMap<Span, Integer> unsorted;
+    private SpanTree tree;
+
+    public LocationIndex() {
+        starts = new long[INITIAL_CAPACITY];
+        ends = new long[INITIAL_CAPACITY];
+        locations = new Location[INITIAL_CAPACITY];
+        size = 0;
+        sorted = true;
+        sortedSize = 0;
+        unsorted = new HashMap<Span, Integer>();
+        tree = null;
+    }
+
+    /**
+     * Adds a location, replacing any location with the same start and end.
+     *
+     * @param location The location to add.
+     * @return The location it replaced, or null.
+     */
+    public Location put(Location location) {
+        long start = location.start, end = location.end;
+        Span span = null;
+        if(sorted){
+            if(size > 0 && compare(start, end, starts[size-1],
+                    ends[size-1]) <= 0){
+                int index = find(start, end, size);
+                if(index >= 0)
+                    return replace(index, location);
+
+                // Everything added from here on is unsorted.
+                sorted = false;
+                sortedSize = size;
+                span = new Span(start, end);
+            }
+        } else {
+            int index = find(start, end, sortedSize);
+            if(index >= 0)
+                return replace(index, location);
+            span = new Span(start, end);
+            Integer added = unsorted.get(span);
+            if(added != null)
+                return replace(added, location);
+        }
+
+        if(size == locations.length){
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+        }
+        starts[size] = location.start;
+        ends[size] = location.end;
+        locations[size] = location;
+        if(span != null)
+            unsorted.put(span, size);
+        size++;
+        tree = null;
+        return null;
+    }
+
+    /**
+     * Replaces the location at a position with one that has the same start
+     * and end.
+     *
+     * @return The location that was replaced.
+     */
+    private Location replace(int index, Location location) {
+        Location replaced = locations[index];
+        locations[index] = location;
+        return replaced;
+    }
+
+    /**
+     * @param start A location's start offset.
+     * @param end A location's end offset.
+     * @return The location with the given start and end, or null.
+     */
+    public Location get(long start, long end) {
+        sort();
+        int index = find(start, end, size);
+        return index < 0 ? null : locations[index];
+    }
+
+    /**
+     * @param id A location's id ("start_end").
+     * @return The location with the given id, or null.
+     */
+    public Location get(String id) {
+        int separator = id.indexOf('_');
+        if(separator < 0)
+            return null;
+        try {
+            return get(Long.parseLong(id.substring(0, separator)),
+                Long.parseLong(id.substring(separator+1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param index A position in the index (0 is the first location).
+     * @return The location at that position.
+     */
+    public Location get(int index) {
+        sort();
+        if(index >= size)
+            throw new IndexOutOfBoundsException(index +" >= "+ size);
+        return locations[index];
+    }
+
+    /**
+     * @param start An offset.
+     * @return The position of the first location that starts at or after
+     *         `start` (size() if there are none).
+     */
+    public int indexOf(long start) {
+        sort();
+        int low = 0, high = size;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(starts[middle] < start)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param from The first start offset to include.
+     * @param to The start offset to stop before.
+     * @return The locations that start in [from, to), in order. The list is
+     *         a view that's only valid until the index changes.
+     */
+    public List<Location> range(long from, long to) {
+        int first = indexOf(from);
+        int last = Math.max(first, indexOf(to));
+        return view(first, last);
+    }
+
+    /**
+     * Finds the locations that overlap a span.
+     *
+     * @param start The first offset of the span.
+     * @param end The last offset of the span (inclusive, like a location's).
+     * @return The locations with at least one offset in [start, end], in
+     *         order.
+     */
+    public List<Location> overlapping(long start, long end) {
+        if(tree == null){
+            sort();
+            tree = new SpanTree(starts, ends, size);
+        }
+        int[] found = tree.overlapping(start, end);
+        ArrayList<Location> overlapping = new ArrayList<Location>(
+            found.length);
+        for(int index : found)
+            overlapping.add(locations[index]);
+        return overlapping;
+    }
+
+    /**
+     * Finds the locations that lie entirely within a span.
+     *
+     * @param start The first offset of the span.
+     * @param end The last offset of the span (inclusive).
+     * @return The locations whose offsets are all in [start, end], in order.
+     */
+    public List<Location> within(long start, long end) {
+        ArrayList<Location> within = new ArrayList<Location>();
+        for(int i = indexOf(start); i < size && starts[i] <= end; i++)
+            if(ends[i] <= end)
+                within.add(locations[i]);
+        return within;
+    }
+
+    /**
+     * Finds the locations that contain a span.
+     *
+     * @param start The first offset of the span.
+     * @param end The last offset of the span (inclusive).
+     * @return The locations that include every offset in [start, end], in
+     *         order.
+     */
+    public List<Location> containing(long start, long end) {
+        ArrayList<Location> containing = new ArrayList<Location>();
+        // Anything containing the span overlaps its last offset.
+        for(Location location : overlapping(end, end))
+            if(location.start <= start)
+                containing.add(location);
+        return containing;
+    }
+
+    /**
+     * @return The number of locations.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterates over the locations in order.
+     */
+    public Iterator<Location> iterator() {
+        sort();
+        return view(0, size).iterator();
+    }
+
+    /**
+     * @return A read-only list of the locations at positions [first, last).
+     */
+    private List<Location> view(final int first, final int last) {
+        final Location[] locations = this.locations;
+        return new AbstractList<Location>() {
+            public Location get(int index) {
+                if(index < 0 || index >= last - first)
+                    throw new IndexOutOfBoundsException(Integer.toString(
+                        index));
+                return locations[first + index];
+            }
+
+            public int size() {
+                return last - first;
+            }
+        };
+    }
+
+    /**
+     * Binary searches for a location among the first `limit` locations,
+     * which must be sorted.
+     *
+     * @return The location's position, or -1.
+     */
+    private int find(long start, long end, int limit) {
+        int low = 0, high = limit - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int order = compare(starts[middle], ends[middle], start, end);
+            if(order < 0)
+                low = middle + 1;
+            else if(order > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Sorts the index if locations were added out of order. (put never adds
+     * a second location with the same start and end, so there's nothing to
+     * deduplicate.)
+     */
+    private void sort() {
+        if(sorted)
+            return;
+
+        Arrays.sort(locations, 0, size, ORDER);
+        for(int i = 0; i < size; i++){
+            starts[i] = locations[i].start;
+            ends[i] = locations[i].end;
+        }
+        unsorted.clear();
+        sortedSize = size;
+        sorted = true;
+        tree = null;
+    }
+
+    /**
+     * Orders (start, end) pairs by start and then end.
+     */
+    private static int compare(long startA, long endA, long startB,
+            long endB) {
+        if(startA != startB)
+            return startA < startB ? -1 : 1;
+        return endA < endB ? -1 : (endA == endB ? 0 : 1);
+    }
+
+    /**
+     * A (start, end) pair, as a hash key for locations added out of order.
+     */
+    private static final class Span {
+        private final long start, end;
+
+        Span(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public boolean equals(Object other) {
+            if(!(other instanceof Span))
+                return false;
+            Span span = (Span) other;
+            return start == span.start && end == span.end;
+        }
+
+        public int hashCode() {
+            return (int) (start ^ (start >>> 32)) * 31 +
+                (int) (end ^ (end >>> 32));
+        }
+    }
+}
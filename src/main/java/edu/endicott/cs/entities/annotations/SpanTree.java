@@ -0,0 +1,134 @@
+// Files:   SpanTree.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities.annotations;
+
+import java.util.Arrays;
+
+/**
+ * An interval tree over spans that are already sorted by start offset, used
+ * by LocationIndex and TieIndex. Spans are inclusive: [start, end].
+ *
+ * The tree is implicit, as in cgranges: the sorted array is treated as an
+ * in-order layout of a binary tree (the node at position i is on level k if
+ * i's lowest k bits are all 1s), and each node is augmented with the
+ * largest end offset in its subtree. Building it is linear; finding the k
+ * spans that overlap a query takes O(log n + k) time, and they're found in
+ * start order.
+ */
+class SpanTree {
+    // Subtrees this small (2^(k+1) - 1 spans) are scanned linearly.
+    private static final int SCAN_LEVEL = 3;
+
+    private long[] starts, ends, maxEnds;
+    private int size, maxLevel;
+
+    /**
+     * @param starts Span start offsets, sorted; not copied.
+     * @param ends Span end offsets, in the same order; not copied.
+     * @param size The number of spans.
+     */
+    SpanTree(long[] starts, long[] ends, int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.size = size;
+        maxEnds = new long[size];
+        maxLevel = build();
+    }
+
+    /**
+     * Computes the largest end offset under each node.
+     *
+     * @return The root's level, or -1 if there are no spans.
+     */
+    private int build() {
+        if(size == 0)
+            return -1;
+
+        // Leaves (level 0) are at even positions.
+        int lastIndex = 0;
+        long last = 0;
+        for(int i = 0; i < size; i += 2){
+            lastIndex = i;
+            last = maxEnds[i] = ends[i];
+        }
+
+        int level;
+        for(level = 1; (1L << level) <= size; level++){
+            int half = 1 << (level - 1), first = (half << 1) - 1,
+                step = half << 2;
+            for(int i = first; i < size; i += step){
+                long leftMax = maxEnds[i - half];
+                // A node whose right subtree is past the end of the array
+                // covers the last node on the level below.
+                long rightMax = i + half < size ? maxEnds[i + half] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+            }
+            lastIndex = ((lastIndex >> level) & 1) == 1 ?
+                lastIndex - half : lastIndex + half;
+            if(lastIndex < size && maxEnds[lastIndex] > last)
+                last = maxEnds[lastIndex];
+        }
+        return level - 1;
+    }
+
+    /**
+     * Finds the spans that overlap [from, to].
+     *
+     * @param from The first offset of the query span.
+     * @param to The last offset of the query span.
+     * @return The positions of the overlapping spans, in order.
+     */
+    int[] overlapping(long from, long to) {
+        if(maxLevel < 0)
+            return new int[0];
+        int[] found = new int[16];
+        int count = 0;
+
+        // Each stack entry is a node's level, position, and whether its left
+        // subtree has been visited.
+        int[] levels = new int[64], nodes = new int[64];
+        boolean[] leftDone = new boolean[64];
+        int top = 0;
+        levels[top] = maxLevel;
+        nodes[top] = (1 << maxLevel) - 1;
+        leftDone[top++] = false;
+
+        while(top > 0){
+            top--;
+            int level = levels[top], node = nodes[top];
+            if(level <= SCAN_LEVEL){
+                int i = node >> level << level;
+                int end = Math.min(size, i + (1 << (level + 1)) - 1);
+                for(; i < end && starts[i] <= to; i++){
+                    if(ends[i] >= from){
+                        if(count == found.length)
+                            found = Arrays.copyOf(found, count * 2);
+                        found[count++] = i;
+                    }
+                }
+            } else if(!leftDone[top]){
+                int left = node - (1 << (level - 1));
+                // Come back to this node once its left subtree is done.
+                leftDone[top++] = true;
+                // The left child may be past the end of the array, but its
+                // subtree can still hold spans.
+                if(left >= size || maxEnds[left] >= from){
+                    levels[top] = level - 1;
+                    nodes[top] = left;
+                    leftDone[top++] = false;
+                }
+            } else if(node < size && starts[node] <= to){
+                if(ends[node] >= from){
+                    if(count == found.length)
+                        found = Arrays.copyOf(found, count * 2);
+                    found[count++] = node;
+                }
+                levels[top] = level - 1;
+                nodes[top] = node + (1 << (level - 1));
+                leftDone[top++] = false;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+}
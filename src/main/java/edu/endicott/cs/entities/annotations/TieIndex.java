@@ -0,0 +1,122 @@
+// Files:   TieIndex.java
+// Date:    18-Oct-2026
+
+package edu.endicott.cs.entities.annotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A snapshot of an annotation's ties, ordered by start and then end offset,
+ * for finding the ties that overlap, lie within, or contain a span of
+ * tokens (see SpanTree). Ties without a span (start or end negative) are
+ * left out.
+ *
+ * @see Annotation#getTieIndex
+ */
+public class TieIndex {
+    private static final Comparator<Tie> ORDER = new Comparator<Tie>() {
+        public int compare(Tie a, Tie b) {
+            if(a.start != b.start)
+                return a.start < b.start ? -1 : 1;
+            return a.end < b.end ? -1 : (a.end == b.end ? 0 : 1);
+        }
+    };
+
+    private Tie[] ties;
+    private long[] starts, ends;
+    private int size;
+    private SpanTree tree;
+
+    /**
+     * @param ties The ties to index.
+     */
+    public TieIndex(Collection<Tie> ties) {
+        this.ties = new Tie[ties.size()];
+        size = 0;
+        for(Tie tie : ties)
+            if(tie.start >= 0 && tie.end >= 0)
+                this.ties[size++] = tie;
+        Arrays.sort(this.ties, 0, size, ORDER);
+
+        starts = new long[size];
+        ends = new long[size];
+        for(int i = 0; i < size; i++){
+            starts[i] = this.ties[i].start;
+            ends[i] = this.ties[i].end;
+        }
+        tree = new SpanTree(starts, ends, size);
+    }
+
+    /**
+     * Finds the ties that overlap a span.
+     *
+     * @param start The first offset of the span.
+     * @param end The last offset of the span (inclusive, like a tie's).
+     * @return The ties with at least one offset in [start, end], in order.
+     */
+    public List<Tie> overlapping(long start, long end) {
+        int[] found = tree.overlapping(start, end);
+        ArrayList<Tie> overlapping = new ArrayList<Tie>(found.length);
+        for(int index : found)
+            overlapping.add(ties[index]);
+        return overlapping;
+    }
+
+    /**
+     * Finds the ties that lie entirely within a span.
+     *
+     * @param start The first offset of the span.
+     * @param end The last offset of the span (inclusive).
+     * @return The ties whose offsets are all in [start, end], in order.
+     */
+    public List<Tie> within(long start, long end) {
+        ArrayList<Tie> within = new ArrayList<Tie>();
+        for(int i = firstFrom(start); i < size && starts[i] <= end; i++)
+            if(ends[i] <= end)
+                within.add(ties[i]);
+        return within;
+    }
+
+    /**
+     * Finds the ties that contain a span.
+     *
+     * @param start The first offset of the span.
+     * @param end The last offset of the span (inclusive).
+     * @return The ties that include every offset in [start, end], in order.
+     */
+    public List<Tie> containing(long start, long end) {
+        ArrayList<Tie> containing = new ArrayList<Tie>();
+        // Anything containing the span overlaps its last offset.
+        for(Tie tie : overlapping(end, end))
+            if(tie.start <= start)
+                containing.add(tie);
+        return containing;
+    }
+
+    /**
+     * @return The number of ties with spans.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param start An offset.
+     * @return The position of the first tie that starts at or after `start`.
+     */
+    private int firstFrom(long start) {
+        int low = 0, high = size;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(starts[middle] < start)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
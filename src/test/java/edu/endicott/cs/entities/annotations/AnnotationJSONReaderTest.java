@@ -0,0 +1,74 @@
+package edu.endicott.cs.entities.annotations;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for AnnotationJSONReader.
+ */
+public class AnnotationJSONReaderTest extends TestCase {
+    public AnnotationJSONReaderTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(AnnotationJSONReaderTest.class);
+    }
+
+    /**
+     * The web client writes the last group id it creates as a string.
+     */
+    public void testLastIdsAsStrings() throws Exception {
+        Annotation annotation = new Annotation("{\"last_entity_id\":\"3\"," +
+            "\"last_group_id\":\"2\",\"last_location_id\":\"0\"," +
+            "\"entities\":{\"1\":{\"name\":\"Ann\",\"group_id\":\"2\"}}," +
+            "\"groups\":{\"2\":{\"name\":\"Ann\"}},\"locations\":{}," +
+            "\"ties\":{}}");
+        assertFalse(annotation.computeLastIdsFromData);
+        assertEquals(3, annotation.lastEntityId);
+        assertEquals(2, annotation.lastGroupId);
+        assertEquals("Ann", annotation.entities.get("1").name);
+    }
+
+    public void testLastIdsAsNumbers() throws Exception {
+        Annotation annotation = new Annotation("{\"last_entity_id\":3," +
+            "\"last_group_id\":2,\"last_location_id\":0,\"entities\":{}," +
+            "\"groups\":{},\"locations\":{},\"ties\":{}}");
+        assertFalse(annotation.computeLastIdsFromData);
+        assertEquals(3, annotation.lastEntityId);
+        assertEquals(2, annotation.lastGroupId);
+    }
+
+    /**
+     * A last id that isn't a number is treated as missing.
+     */
+    public void testLastIdNotANumber() throws Exception {
+        Annotation annotation = new Annotation("{\"last_entity_id\":1," +
+            "\"last_group_id\":\"x\",\"last_location_id\":0," +
+            "\"entities\":{}," +
+            "\"groups\":{\"5\":{\"name\":\"Bo\"}},\"locations\":{}," +
+            "\"ties\":{}}");
+        assertTrue(annotation.computeLastIdsFromData);
+        assertEquals(5, annotation.lastGroupId);
+    }
+
+    /**
+     * Ids that aren't numbers are read, but don't count toward the last ids.
+     */
+    public void testIdsNotNumbers() throws Exception {
+        Annotation annotation = new Annotation("{" +
+            "\"entities\":{\"a\":{\"name\":\"Ann\",\"group_id\":\"g\"}," +
+                "\"2\":{\"name\":\"Bo\",\"group_id\":\"3\"}}," +
+            "\"groups\":{\"g\":{\"name\":\"Ann\"},\"3\":{\"name\":\"Bo\"}}," +
+            "\"locations\":{}," +
+            "\"ties\":{\"t\":{\"label\":\"\"}}}");
+        assertTrue(annotation.computeLastIdsFromData);
+        assertEquals("Ann", annotation.entities.get("a").name);
+        assertEquals("Ann", annotation.groups.get("g").name);
+        assertNotNull(annotation.ties.get("t"));
+        assertEquals(2, annotation.lastEntityId);
+        assertEquals(3, annotation.lastGroupId);
+        assertEquals(0, annotation.lastTieId);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.endicott.cs.entities.annotations;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for Annotation's reverse indexes.
+ */
+public class AnnotationTest extends TestCase {
+    public AnnotationTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(AnnotationTest.class);
+    }
+
+    /**
+     * Merging a group: an entity's group id is changed in place and the
+     * entity is added again.
+     */
+    public void testGroupMerge() {
+        Annotation annotation = new Annotation();
+        Entity entity = new Entity(null, "Ann", "1");
+        annotation.addEntity(entity);
+        assertEquals(1, annotation.getGroupEntities("1").size());
+
+        entity.groupId = "2";
+        annotation.addEntity(entity);
+        assertTrue(annotation.getGroupEntities("1").isEmpty());
+        assertEquals(1, annotation.getGroupEntities("2").size());
+        assertSame(entity, annotation.getGroupEntities("2").get(0));
+    }
+
+    public void testLocationMovedToAnotherEntity() {
+        Annotation annotation = new Annotation();
+        Location location = new Location("3_4", "1", 3, 4);
+        annotation.addLocation(location);
+
+        location.entityId = "2";
+        annotation.addLocation(location);
+        assertTrue(annotation.getEntityLocations("1").isEmpty());
+        assertEquals(1, annotation.getEntityLocations("2").size());
+    }
+
+    /**
+     * Replacing a location that was added out of order, before the index
+     * has been sorted again.
+     */
+    public void testUnsortedLocationReplaced() {
+        Annotation annotation = new Annotation();
+        annotation.addLocation(new Location("5_6", "1", 5, 6));
+        annotation.addLocation(new Location("1_2", "1", 1, 2));
+        annotation.addLocation(new Location("3_3", "1", 3, 3));
+
+        Location replacement = new Location("1_2", "2", 1, 2);
+        annotation.addLocation(replacement);
+        assertEquals(3, annotation.locations.size());
+        assertEquals(2, annotation.getEntityLocations("1").size());
+        assertSame(replacement, annotation.getEntityLocations("2").get(0));
+        assertSame(replacement, annotation.locations.get(0));
+        assertEquals(3, annotation.locations.get(1).start);
+    }
+
+    public void testTieRetargeted() {
+        Annotation annotation = new Annotation();
+        Tie tie = new Tie(null, "tie", -1, -1, -1, false,
+            new TieEntity(null, "1"), new TieEntity("3_4", null));
+        annotation.addTie(tie);
+
+        tie.sourceEntity.entityId = "2";
+        tie.targetEntity.locationId = "5_6";
+        annotation.addTie(tie);
+        assertTrue(annotation.getEntityTies("1").isEmpty());
+        assertTrue(annotation.getLocationTies("3_4").isEmpty());
+        assertEquals(1, annotation.getEntityTies("2").size());
+        assertEquals(1, annotation.getLocationTies("5_6").size());
+    }
+
+    /**
+     * Replacing an entity with a different object under the same id.
+     */
+    public void testEntityReplaced() {
+        Annotation annotation = new Annotation();
+        annotation.addEntity(new Entity("1", "Ann", "1"));
+
+        Entity replacement = new Entity("1", "Ann", "2");
+        annotation.addEntity(replacement);
+        assertTrue(annotation.getGroupEntities("1").isEmpty());
+        assertSame(replacement, annotation.getGroupEntities("2").get(0));
+    }
+}
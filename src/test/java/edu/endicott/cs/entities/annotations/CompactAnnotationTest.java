@@ -0,0 +1,78 @@
+package edu.endicott.cs.entities.annotations;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for CompactAnnotation.
+ */
+public class CompactAnnotationTest extends TestCase {
+    public CompactAnnotationTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompactAnnotationTest.class);
+    }
+
+    /**
+     * @return An annotation with a location whose start and end were edited
+     *         after it was created (so its id is no longer "start_end"), and
+     *         a tie that refers to it.
+     */
+    private static Annotation editedAnnotation() throws Exception {
+        return new Annotation("{\"last_entity_id\":1,\"last_group_id\":1," +
+            "\"last_location_id\":0,\"last_tie_id\":1," +
+            "\"entities\":{\"1\":{\"name\":\"Ann\",\"group_id\":\"1\"}}," +
+            "\"groups\":{\"1\":{\"name\":\"Ann\"}}," +
+            "\"locations\":{" +
+                "\"3_4\":{\"entity_id\":\"1\",\"start\":5,\"end\":6}," +
+                "\"8_8\":{\"entity_id\":\"1\",\"start\":8,\"end\":8}}," +
+            "\"ties\":{\"1\":{\"label\":\"\"," +
+                "\"source_entity\":{\"location_id\":\"3_4\"}," +
+                "\"target_entity\":{\"location_id\":\"8_8\"}}}}");
+    }
+
+    public void testRoundTripKeepsEditedLocationIds() throws Exception {
+        Annotation annotation = editedAnnotation();
+        CompactAnnotation compact = CompactAnnotation.fromAnnotation(
+            annotation);
+        assertEquals("3_4", compact.getLocationId(0));
+        assertEquals(annotation.toString(), compact.toString());
+
+        Annotation roundTrip = compact.toAnnotation();
+        Location location = roundTrip.locations.get(5, 6);
+        assertEquals("3_4", location.id);
+        Tie tie = roundTrip.ties.get("1");
+        assertEquals("3_4", tie.sourceEntity.locationId);
+        assertEquals(1, roundTrip.getLocationTies("3_4").size());
+        assertEquals(annotation.toString(), roundTrip.toString());
+    }
+
+    /**
+     * A tie added between locations refers to them by their ids.
+     */
+    public void testNewTieUsesEditedLocationId() throws Exception {
+        CompactAnnotation compact = CompactAnnotation.fromAnnotation(
+            editedAnnotation());
+        compact.truncateTies();
+        compact.addTie(5, 8, compact.findLocation(5, 6),
+            compact.findLocation(8, 8));
+
+        Tie tie = compact.toAnnotation().ties.get("1");
+        assertEquals("3_4", tie.sourceEntity.locationId);
+        assertEquals("8_8", tie.targetEntity.locationId);
+    }
+
+    /**
+     * Adding a location with the same start and end replaces its id too.
+     */
+    public void testReplacedLocationGetsNewId() throws Exception {
+        CompactAnnotation compact = CompactAnnotation.fromAnnotation(
+            editedAnnotation());
+        compact.addLocation(5, 6, compact.findEntity(1));
+        assertEquals("5_6", compact.getLocationId(
+            compact.findLocation(5, 6)));
+    }
+}
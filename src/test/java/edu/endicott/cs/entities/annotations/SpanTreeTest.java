@@ -0,0 +1,209 @@
+package edu.endicott.cs.entities.annotations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests for the span queries of LocationIndex and TieIndex (see SpanTree),
+ * checked against a linear scan over randomly generated spans.
+ */
+public class SpanTreeTest extends TestCase {
+    // Sizes around the edges of the implicit tree's levels.
+    private static final int[] SIZES = {0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16,
+        17, 31, 33, 63, 64, 65, 100, 127, 129, 300, 1000};
+
+    private static final Comparator<Tie> TIE_ORDER = new Comparator<Tie>() {
+        public int compare(Tie a, Tie b) {
+            if(a.start != b.start)
+                return a.start < b.start ? -1 : 1;
+            return a.end < b.end ? -1 : (a.end == b.end ? 0 : 1);
+        }
+    };
+
+    private Random random;
+
+    public SpanTreeTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(SpanTreeTest.class);
+    }
+
+    protected void setUp() {
+        random = new Random(20261018L);
+    }
+
+    public void testEmpty() {
+        LocationIndex locations = new LocationIndex();
+        assertTrue(locations.overlapping(0, 100).isEmpty());
+        assertTrue(locations.within(0, 100).isEmpty());
+        assertTrue(locations.containing(0, 0).isEmpty());
+
+        TieIndex ties = new TieIndex(new ArrayList<Tie>());
+        assertEquals(0, ties.size());
+        assertTrue(ties.overlapping(0, 100).isEmpty());
+        assertTrue(ties.within(0, 100).isEmpty());
+        assertTrue(ties.containing(0, 0).isEmpty());
+    }
+
+    public void testOneSpan() {
+        LocationIndex locations = new LocationIndex();
+        Location location = new Location("3_5", "1", 3, 5);
+        locations.put(location);
+        assertTrue(locations.overlapping(0, 2).isEmpty());
+        assertTrue(locations.overlapping(6, 9).isEmpty());
+        assertSame(location, locations.overlapping(5, 9).get(0));
+        assertSame(location, locations.overlapping(0, 3).get(0));
+        assertSame(location, locations.within(3, 5).get(0));
+        assertTrue(locations.within(4, 9).isEmpty());
+        assertSame(location, locations.containing(4, 4).get(0));
+        assertTrue(locations.containing(2, 4).isEmpty());
+    }
+
+    /**
+     * Ties without a span are left out of the index.
+     */
+    public void testTiesWithoutSpans() {
+        ArrayList<Tie> ties = new ArrayList<Tie>();
+        ties.add(tie(-1, -1));
+        ties.add(tie(2, 4));
+        ties.add(tie(3, -1));
+        TieIndex index = new TieIndex(ties);
+        assertEquals(1, index.size());
+        assertSame(ties.get(1), index.overlapping(0, 100).get(0));
+    }
+
+    public void testLocationsMatchLinearScan() {
+        for(int size : SIZES){
+            for(int round = 0; round < 5; round++){
+                LocationIndex index = new LocationIndex();
+                ArrayList<Location> expected = new ArrayList<Location>();
+                HashSet<String> ids = new HashSet<String>();
+                long range = 1 + size * 2;
+                // Distinct (start, end) pairs, added out of order.
+                while(expected.size() < size){
+                    long start = (long) (random.nextDouble() * range);
+                    long end = start + length();
+                    if(!ids.add(start +"_"+ end))
+                        continue;
+                    Location location = new Location(start +"_"+ end, "1",
+                        start, end);
+                    index.put(location);
+                    expected.add(location);
+                }
+                Collections.sort(expected, new Comparator<Location>() {
+                    public int compare(Location a, Location b) {
+                        if(a.start != b.start)
+                            return a.start < b.start ? -1 : 1;
+                        return a.end < b.end ? -1 : (a.end == b.end ? 0 : 1);
+                    }
+                });
+
+                for(int query = 0; query < 50; query++){
+                    long start = (long) (random.nextDouble() * (range + 10))
+                        - 5;
+                    long end = start + length();
+                    String span = "size "+ size +" ["+ start +", "+ end +"]";
+                    assertEquals(span, overlappingLocations(expected, start,
+                        end), index.overlapping(start, end));
+                    assertEquals(span, withinLocations(expected, start, end),
+                        index.within(start, end));
+                    assertEquals(span, containingLocations(expected, start,
+                        end), index.containing(start, end));
+                }
+            }
+        }
+    }
+
+    public void testTiesMatchLinearScan() {
+        for(int size : SIZES){
+            for(int round = 0; round < 5; round++){
+                // Ties can share a span; the index keeps them all.
+                ArrayList<Tie> ties = new ArrayList<Tie>();
+                long range = 1 + size;
+                for(int i = 0; i < size; i++){
+                    long start = (long) (random.nextDouble() * range);
+                    ties.add(tie(start, start + length()));
+                }
+                TieIndex index = new TieIndex(ties);
+                ArrayList<Tie> expected = new ArrayList<Tie>(ties);
+                Collections.sort(expected, TIE_ORDER);
+                assertEquals(size, index.size());
+
+                for(int query = 0; query < 50; query++){
+                    long start = (long) (random.nextDouble() * (range + 10))
+                        - 5;
+                    long end = start + length();
+                    String span = "size "+ size +" ["+ start +", "+ end +"]";
+                    ArrayList<Tie> overlapping = new ArrayList<Tie>();
+                    ArrayList<Tie> within = new ArrayList<Tie>();
+                    ArrayList<Tie> containing = new ArrayList<Tie>();
+                    for(Tie tie : expected){
+                        if(tie.start <= end && tie.end >= start)
+                            overlapping.add(tie);
+                        if(tie.start >= start && tie.end <= end)
+                            within.add(tie);
+                        if(tie.start <= start && tie.end >= end)
+                            containing.add(tie);
+                    }
+                    assertEquals(span, overlapping,
+                        index.overlapping(start, end));
+                    assertEquals(span, within, index.within(start, end));
+                    assertEquals(span, containing,
+                        index.containing(start, end));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A span length: mostly short, like mentions, with the odd long
+     *         one so that subtrees' largest end offsets matter.
+     */
+    private long length() {
+        if(random.nextInt(10) == 0)
+            return random.nextInt(200);
+        return random.nextInt(4);
+    }
+
+    private static Tie tie(long start, long end) {
+        return new Tie(null, "tie", start, end, 1, false,
+            new TieEntity(null, "1"), new TieEntity(null, "2"));
+    }
+
+    private static List<Location> overlappingLocations(
+            List<Location> locations, long start, long end) {
+        ArrayList<Location> found = new ArrayList<Location>();
+        for(Location location : locations)
+            if(location.start <= end && location.end >= start)
+                found.add(location);
+        return found;
+    }
+
+    private static List<Location> withinLocations(List<Location> locations,
+            long start, long end) {
+        ArrayList<Location> found = new ArrayList<Location>();
+        for(Location location : locations)
+            if(location.start >= start && location.end <= end)
+                found.add(location);
+        return found;
+    }
+
+    private static List<Location> containingLocations(
+            List<Location> locations, long start, long end) {
+        ArrayList<Location> found = new ArrayList<Location>();
+        for(Location location : locations)
+            if(location.start <= start && location.end >= end)
+                found.add(location);
+        return found;
+    }
+}
@@ -330,6 +330,10 @@ public static function runAutomaticAnnotation($annotator, $args, $textId, $md5su
         $annotationId           // Annotation entry id.
     ]);
 
+    // Only ask BookNLP for the analyses and files we'll use.
+    if(property_exists($CONFIG, "booknlp_plan"))
+        $bookNLPArgs .= "\t". $CONFIG->booknlp_plan;
+
     error_log("processing text");
 
     $processors = [];
@@ -438,9 +442,98 @@ public static function processText($textId, $md5sum, $processors) {
     if($buffer === "success\n")
         return array("success" => true);
 
+    if($buffer === "busy\n")
+        return array("success" => false, 
+            "error" => "The text processing server is busy; please try ".
+                "again in a few minutes.");
+
     return array("success" => false, "error" => $buffer);
 }
 
+/**
+ * Retrieves a range of a text's tokens from the text processing server, so
+ * the token navigator can page through a long text without downloading all
+ * of tokens.json. Returns the following:
+ * 
+ *   - success (true or false)
+ *   - error (if success is false)
+ *   - start, end (the ids of the first token and the token just past the
+ *     last token returned)
+ *   - token_count, sentence_count, paragraph_count (for the whole text)
+ *   - tokens (an array of [text, whitespace] pairs, as in tokens.json)
+ * 
+ * @param path Ignored.
+ * @param matches First match should be the text id.
+ * @param params The request parameters:
+ *   - start -- the first token, sentence, or paragraph (default 0)
+ *   - end -- the token, sentence, or paragraph to stop before (default 
+ *            start + 1000)
+ *   - unit -- token (default), sentence, or paragraph
+ * @param format The format of the response, 'json' or 'html' (unsupported).
+ * @return If format is 'json', returns an associative array with the fields
+ *         outlines above; otherwise, returns nothing.
+ */
+public static function getTextTokens($path, $matches, $params, $format){
+    global $CONFIG;
+
+    if(count($matches) < 2){
+        error("Must include the id of the text in URI.");
+    }
+    $textId = $matches[1];
+    $text = getTextMetadata($textId);
+
+    // Ensure this text exists and the user may see it.
+    if(!$text){
+        error("We could not find a text with the id $textId.");
+    }
+    if(!canViewText($textId)){
+        error("You do not have permissions to view this text.");
+    }
+
+    $start = key_exists("start", $params) ? intval($params["start"]) : 0;
+    $end = key_exists("end", $params) ? intval($params["end"]) : $start+1000;
+    $unit = key_exists("unit", $params) ? $params["unit"] : "token";
+    if(!in_array($unit, ["token", "sentence", "paragraph"])){
+        error("Unrecognized unit: $unit.");
+    }
+
+    // Open the socket.
+    if(!($sock = socket_create(AF_INET, SOCK_STREAM, 0)) ||
+        !socket_connect($sock, "127.0.0.1", $CONFIG->text_processing_port)) {
+        $errorCode = socket_last_error();
+        $errorMessage = socket_strerror($errorCode);
+        return array("success" => false,
+            "error" => "Could not connect: [$errorCode] $errorMessage.");
+    }
+
+    $message = join("\t", ["tokens", $textId, 
+        getTextDirectory($text["md5sum"]), $start, $end, $unit]) ."\n";
+    if(!socket_send($sock, $message, strlen($message), 0)) {
+        $errorCode = socket_last_error();
+        $errorMessage = socket_strerror($errorCode);
+        return array("success" => false,
+            "error" => "Could not connect: [$errorCode] $errorMessage.");
+    }
+
+    // Read the whole reply; the server closes the connection when done.
+    $response = "";
+    while(($read = socket_recv($sock, $buffer, 65536, 0)) > 0){
+        $response .= $buffer;
+    }
+    socket_close($sock);
+
+    if($response === "busy\n")
+        return array("success" => false, 
+            "error" => "The text processing server is busy; please try ".
+                "again in a few minutes.");
+
+    $tokens = json_decode($response, true);
+    if($tokens === null)
+        return array("success" => false, "error" => $response);
+
+    return $tokens;
+}
+
 /**
  * Post a new annotation by copying the processed annotation on disk over to
  * the database. Returns the following 
@@ -97,6 +97,12 @@ $routes = [
         "#^texts/(\d+)/?$#", 
         'Controllers::editText'),
 
+    // Retrieves a range of a text's tokens.
+    Controllers::generateRoute(
+        "GET", 
+        "#^texts/(\d+)/tokens/?(\?.*)?$#", 
+        'Controllers::getTextTokens'),
+
     //////////////////////////////////////////////
     // Text permissions.
     ///////////////